@@ -0,0 +1,83 @@
+package sample.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the memory used to write a signed document to disk when completing a signature,
+ * comparing the legacy finishers (whose finish() method returns the whole document as a byte array)
+ * with the "2" finishers (whose SignatureResult writes the document to a file).
+ * <p>
+ * REST PKI is not called. The legacy path is modeled by what happens to the response of the
+ * legacy finish call: the JSON body is read as a whole, the Base64-encoded document is extracted
+ * and decoded and then written with Files.write(). The other path copies the document from a
+ * stream to the file with a fixed-size buffer. It only models that last step: how the client
+ * receives the document from REST PKI before writeToFile() is called is not measured, and it might
+ * also hold the whole document in memory, so this is a lower bound of the savings rather than the
+ * memory held by a completion. The "gc.alloc.rate.norm" figure reported by the GC profiler (run
+ * with -prof gc) is the heap allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureCompletionBenchmark {
+
+	private static final int bufferSize = 64 * 1024;
+
+	@Param({"1024", "16384"})
+	public int sizeKb;
+
+	private byte[] legacyResponse;
+	private byte[] signedDocument;
+	private Path target;
+
+	@Setup
+	public void setup() throws IOException {
+		signedDocument = new byte[sizeKb * 1024];
+		new Random(1).nextBytes(signedDocument);
+		legacyResponse = ("{\"signedPdf\":\"" + Base64.getEncoder().encodeToString(signedDocument) + "\",\"certificate\":{}}").getBytes(StandardCharsets.UTF_8);
+		target = Files.createTempFile("signed", ".pdf");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(target);
+	}
+
+	@Benchmark
+	public void legacyFinish() throws IOException {
+		String json = new String(legacyResponse, StandardCharsets.UTF_8);
+		int start = json.indexOf(':') + 2;
+		String signedPdfBase64 = json.substring(start, json.indexOf('"', start));
+		byte[] signedPdf = Base64.getDecoder().decode(signedPdfBase64);
+		Files.write(target, signedPdf);
+	}
+
+	@Benchmark
+	public void streamingFinish() throws IOException {
+		InputStream inStream = new ByteArrayInputStream(signedDocument);
+		OutputStream outStream = Files.newOutputStream(target);
+		try {
+			byte[] buffer = new byte[bufferSize];
+			int read;
+			while ((read = inStream.read(buffer)) != -1) {
+				outStream.write(buffer, 0, read);
+			}
+		} finally {
+			outStream.close();
+		}
+	}
+}
@@ -2,6 +2,7 @@ package sample;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import sample.util.PadesVisualPositioningPresets;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -24,6 +25,10 @@ public class Application {
 		tempFolderPath = Files.createTempDirectory("RestPkiSample");
 
 		SpringApplication.run(Application.class, args);
+
+		// Fetch the PAdES positioning presets in the background, so that the first signature doesn't have to wait for
+		// them.
+		PadesVisualPositioningPresets.warmUp();
 	}
 
 }
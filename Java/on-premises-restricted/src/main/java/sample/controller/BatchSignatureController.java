@@ -0,0 +1,285 @@
+package sample.controller;
+
+import com.lacunasoftware.restpki.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import sample.Application;
+import sample.util.RestPkiExecutor;
+import sample.util.Util;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * This controller signs many PDFs with a single certificate, with two requests to the server regardless of the number
+ * of documents: one to start all signatures and one to complete all of them. In between, the hashes are signed on the
+ * browser by the Web PKI component (see js/batch-signature.js). The signatures are started and completed concurrently
+ * on the server (see RestPkiExecutor).
+ */
+@Controller
+public class BatchSignatureController {
+
+	// Number of copies of the sample document signed when no uploaded files are given.
+	private static final int defaultBatchSize = 10;
+
+	// Maximum number of documents on a single batch.
+	private static final int maxBatchSize = 100;
+
+	// Time given to each action to start or complete all signatures of a batch. Documents that are not done by then are
+	// reported as errors, so a slow response from REST PKI doesn't hold the request indefinitely.
+	private static final long batchTimeoutMillis = 120 * 1000;
+
+	/*
+	 * This action renders the batch signature page (templates/batch-signature.html).
+	 */
+	@RequestMapping(value = "/batch-signature", method = {RequestMethod.GET})
+	public String get() {
+		return "batch-signature";
+	}
+
+	/*
+	 * This action receives the encoding of the certificate chosen by the user and starts the PAdES signatures of all
+	 * documents of the batch: the files given on the "userfile" parameter (which may be repeated), or a number of copies
+	 * of the sample document given by the "count" parameter. The response contains, for each document and in the same
+	 * order, either the token, the hash to be signed and the digest algorithm or the error that prevented the signature
+	 * from being started.
+	 */
+	@RequestMapping(value = "/batch-signature-start", method = {RequestMethod.POST}, produces = {MediaType.APPLICATION_JSON_VALUE})
+	public @ResponseBody List<BatchStartResult> start(
+		@RequestParam(value = "certificate", required = true) final String certificate,
+		@RequestParam(value = "userfile", required = false) List<String> userfiles,
+		@RequestParam(value = "count", required = false) Integer count,
+		HttpServletResponse response
+	) throws InterruptedException {
+
+		if (count != null && (count < 1 || count > maxBatchSize) || userfiles != null && userfiles.size() > maxBatchSize) {
+			throw new IllegalArgumentException("A batch must have between 1 and " + maxBatchSize + " documents");
+		}
+
+		List<String> documents = new ArrayList<String>();
+		if (userfiles != null && !userfiles.isEmpty()) {
+			documents.addAll(userfiles);
+		} else {
+			// A null entry means the sample document (see PadesSignatureController.createSignatureStarter()).
+			for (int i = 0; i < (count != null ? count : defaultBatchSize); i++) {
+				documents.add(null);
+			}
+		}
+
+		// Start all signatures at the same time. Each one is independent, so a failure on one document doesn't affect
+		// the others.
+		List<Future<ClientSideSignatureInstructions>> futures = new ArrayList<Future<ClientSideSignatureInstructions>>();
+		for (final String userfile : documents) {
+			futures.add(RestPkiExecutor.get().submit(new Callable<ClientSideSignatureInstructions>() {
+				@Override
+				public ClientSideSignatureInstructions call() throws Exception {
+					return PadesSignatureController.createSignatureStarter(certificate, userfile).start();
+				}
+			}));
+		}
+
+		// Once the deadline has passed, the documents that are already done are still reported, the others are cancelled.
+		long deadline = System.currentTimeMillis() + batchTimeoutMillis;
+		List<BatchStartResult> results = new ArrayList<BatchStartResult>();
+		for (int i = 0; i < futures.size(); i++) {
+			BatchStartResult result = new BatchStartResult(documents.get(i));
+			try {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				ClientSideSignatureInstructions signatureInstructions = futures.get(i).get(remaining, TimeUnit.MILLISECONDS);
+				result.setToken(signatureInstructions.getToken());
+				result.setToSignHash(signatureInstructions.getToSignHash());
+				result.setDigestAlgorithmOid(signatureInstructions.getDigestAlgorithmOid());
+			} catch (ExecutionException e) {
+				result.setError(getErrorMessage(e.getCause()));
+			} catch (TimeoutException e) {
+				futures.get(i).cancel(true);
+				result.setError("Timed out while starting the signature");
+			}
+			results.add(result);
+		}
+
+		// The tokens can only be used once, so the response must not be cached (see PadesSignatureController.post()).
+		Util.setNoCacheHeaders(response);
+		return results;
+	}
+
+	/*
+	 * This action receives the tokens of the signatures started above and the signatures computed by the Web PKI
+	 * component (the "token" and "signature" parameters are repeated, once per document, in the same order) and
+	 * completes all signatures. The response contains, for each token, either the name of the signed file or the error
+	 * that prevented the signature from being completed.
+	 */
+	@RequestMapping(value = "/batch-signature-complete", method = {RequestMethod.POST}, produces = {MediaType.APPLICATION_JSON_VALUE})
+	public @ResponseBody List<BatchCompleteResult> complete(
+		@RequestParam(value = "token", required = true) List<String> tokens,
+		@RequestParam(value = "signature", required = true) List<String> signatures
+	) throws InterruptedException {
+
+		if (tokens.size() != signatures.size()) {
+			throw new IllegalArgumentException("The number of tokens and signatures must be the same");
+		}
+		if (tokens.size() > maxBatchSize) {
+			throw new IllegalArgumentException("A batch must have at most " + maxBatchSize + " documents");
+		}
+
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+		for (int i = 0; i < tokens.size(); i++) {
+			final String token = tokens.get(i);
+			final String signature = signatures.get(i);
+			futures.add(RestPkiExecutor.get().submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return completeSignature(token, signature);
+				}
+			}));
+		}
+
+		// Same deadline as on the start() action above.
+		long deadline = System.currentTimeMillis() + batchTimeoutMillis;
+		List<BatchCompleteResult> results = new ArrayList<BatchCompleteResult>();
+		for (int i = 0; i < futures.size(); i++) {
+			BatchCompleteResult result = new BatchCompleteResult(tokens.get(i));
+			try {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				result.setFilename(futures.get(i).get(remaining, TimeUnit.MILLISECONDS));
+			} catch (ExecutionException e) {
+				result.setError(getErrorMessage(e.getCause()));
+			} catch (TimeoutException e) {
+				futures.get(i).cancel(true);
+				result.setError("Timed out while completing the signature");
+			}
+			results.add(result);
+		}
+		return results;
+	}
+
+	/*
+	 * Invalid batches (see the checks on the actions above) result in a "Bad Request" response.
+	 */
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public void handleInvalidBatch() {
+	}
+
+	private static String completeSignature(String token, String signature) throws Exception {
+
+		// Complete the signature as done by PadesSignatureController.complete().
+		PadesSignatureFinisher2 signatureFinisher = new PadesSignatureFinisher2(Util.getRestPkiClient());
+		signatureFinisher.setToken(token);
+		signatureFinisher.setSignature(Util.convertFromBase64String(signature));
+		SignatureResult signatureResult = signatureFinisher.finish();
+
+		// Store the signed PDF on the temporary folder, streaming it from REST PKI.
+		String filename = UUID.randomUUID() + ".pdf";
+		signatureResult.writeToFile(Application.getTempFolderPath().resolve(filename));
+		return filename;
+	}
+
+	private static String getErrorMessage(Throwable e) {
+		if (e instanceof ValidationException) {
+			// The toString() method of the ValidationResults object contains the checks that failed.
+			return ((ValidationException) e).getValidationResults().toString();
+		}
+		return e.getMessage();
+	}
+
+	/*
+	 * Result of the start of a single document's signature (serialized to JSON).
+	 */
+	public static class BatchStartResult {
+
+		private String userfile;
+		private String token;
+		private String toSignHash;
+		private String digestAlgorithmOid;
+		private String error;
+
+		public BatchStartResult(String userfile) {
+			this.userfile = userfile;
+		}
+
+		public String getUserfile() {
+			return userfile;
+		}
+
+		public String getToken() {
+			return token;
+		}
+
+		public void setToken(String token) {
+			this.token = token;
+		}
+
+		public String getToSignHash() {
+			return toSignHash;
+		}
+
+		public void setToSignHash(String toSignHash) {
+			this.toSignHash = toSignHash;
+		}
+
+		public String getDigestAlgorithmOid() {
+			return digestAlgorithmOid;
+		}
+
+		public void setDigestAlgorithmOid(String digestAlgorithmOid) {
+			this.digestAlgorithmOid = digestAlgorithmOid;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		public void setError(String error) {
+			this.error = error;
+		}
+	}
+
+	/*
+	 * Result of the completion of a single document's signature (serialized to JSON).
+	 */
+	public static class BatchCompleteResult {
+
+		private String token;
+		private String filename;
+		private String error;
+
+		public BatchCompleteResult(String token) {
+			this.token = token;
+		}
+
+		public String getToken() {
+			return token;
+		}
+
+		public String getFilename() {
+			return filename;
+		}
+
+		public void setFilename(String filename) {
+			this.filename = filename;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		public void setError(String error) {
+			this.error = error;
+		}
+	}
+}
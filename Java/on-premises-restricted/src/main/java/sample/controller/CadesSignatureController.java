@@ -11,7 +11,6 @@ import sample.util.Util;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.UUID;
 
 @Controller
@@ -160,21 +159,21 @@ public class CadesSignatureController {
 		Model model
 	) throws IOException, RestException {
 
-		// Instantiate the PadesSignatureFinisher class, responsible for completing the signature process. For more
-		// information, see:
-		// https://pki.rest/Content/docs/java-client/index.html?com/lacunasoftware/restpki/CadesSignatureFinisher.html
-		CadesSignatureFinisher signatureFinisher = new CadesSignatureFinisher(Util.getRestPkiClient());
+		// Instantiate the CadesSignatureFinisher2 class, responsible for completing the signature process. Unlike the
+		// CadesSignatureFinisher class, whose finish() method returns the whole signed file as a byte array, it yields a
+		// SignatureResult from which the signed file can be read as a stream.
+		CadesSignatureFinisher2 signatureFinisher = new CadesSignatureFinisher2(Util.getRestPkiClient());
 
 		// Set the token for this signature (rendered in a hidden input field, see file templates/cades-signature-step2.html)
 		signatureFinisher.setToken(token);
 
 		// Set the result of the signature operation
-		signatureFinisher.setSignature(signature);
+		signatureFinisher.setSignature(Util.convertFromBase64String(signature));
 
-		// Call the finish() method, which finalizes the signature process and returns the CMS
-		byte[] cms;
+		// Call the finish() method, which finalizes the signature process and returns a SignatureResult object
+		SignatureResult signatureResult;
 		try {
-			cms = signatureFinisher.finish();
+			signatureResult = signatureFinisher.finish();
 		} catch (ValidationException e) {
 			// The call above may throw a ValidationException if any validation errors occur (for instance, if the
 			// certificate is revoked). If so, we'll render a page showing what went wrong.
@@ -186,15 +185,17 @@ public class CadesSignatureController {
 			return "validation-failed";
 		}
 
-		// Get information about the certificate used by the user to sign the file. This method must only be called after
-		// calling the finish() method.
-		PKCertificate signerCert = signatureFinisher.getCertificateInfo();
+		// The "certificate" field of the SignatureResult object contains information about the certificate used by the
+		// user to sign the file.
+		PKCertificate signerCert = signatureResult.getCertificate();
 
 		// At this point, you'd typically store the CMS on your database. For demonstration purposes, we'll
 		// store the CMS on a temporary folder and return to the page an identifier that can be used to download it.
 
+		// The signed file is written to disk with writeToFile(). Avoid the method getContent(), which returns yet another
+		// copy of the file as a byte array.
 		String filename = UUID.randomUUID() + ".p7s";
-		Files.write(Application.getTempFolderPath().resolve(filename), cms);
+		signatureResult.writeToFile(Application.getTempFolderPath().resolve(filename));
 		model.addAttribute("signerCert", signerCert);
 		model.addAttribute("filename", filename);
 		return "cades-signature-info";
@@ -9,7 +9,6 @@ import sample.util.*;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.UUID;
 
 @Controller
@@ -48,6 +47,54 @@ public class PadesSignatureController {
 		HttpServletResponse response
 	) throws IOException, RestException {
 
+		// Instantiate the PadesSignatureStarter class and set the signature elements (see createSignatureStarter() below)
+		PadesSignatureStarter signatureStarter = createSignatureStarter(certificate, userfile);
+
+		// Call the start() method, which initiates the signature on REST PKI. This yields the parameters for the
+		// client-side signature, which we'll use to render the page for the final step, where the actual signature will
+		// be performed.
+		ClientSideSignatureInstructions signatureInstructions;
+		try {
+			signatureInstructions = signatureStarter.start();
+		} catch (ValidationException e) {
+			// The call above may throw a ValidationException if the certificate fails the initial validations (for
+			// instance, if it is expired). If so, we'll render a page showing what went wrong.
+			model.addAttribute("title", "Validation of the certificate failed");
+			// The toString() method of the ValidationResults object can be used to obtain the checks performed, but the
+			// string contains tabs and new line characters for formatting. Therefore, we call the method
+			// Util.getValidationResultsHtml() to convert these characters to <br>'s and &nbsp;'s.
+			model.addAttribute("vrHtml", Util.getValidationResultsHtml(e.getValidationResults()));
+			String retryUrl = "/pades-signature";
+			if (userfile != null && !userfile.isEmpty()) {
+				retryUrl += "?userfile=" + userfile;
+			}
+			model.addAttribute("retryUrl", retryUrl);
+			return "validation-failed";
+		}
+
+		// Among the data returned by the start() method is the token, a string which identifies this signature process.
+		// This token can only be used for a single signature attempt. In order to retry the signature it is
+		// necessary to get a new token. This can be a problem if the user uses the back button of the browser, since the
+		// browser might show a cached page that we rendered previously, with a now stale token. To prevent this from
+		// happening, we call the method Util.setNoCacheHeaders(), which sets HTTP headers to prevent caching of the page.
+		Util.setNoCacheHeaders(response);
+
+		// Render the page for the final step of the signature process, on which the actual signature will be performed
+		// (templates/pades-signature-step2.html)
+		model.addAttribute("selectedCertThumb", selectedCertThumb);
+		model.addAttribute("token", signatureInstructions.getToken());
+		model.addAttribute("toSignHash", signatureInstructions.getToSignHash());
+		model.addAttribute("digestAlg", signatureInstructions.getDigestAlgorithmOid());
+		model.addAttribute("userfile", userfile);
+		return "pades-signature-step2";
+	}
+
+	/*
+	 * Creates a PadesSignatureStarter with the signature elements for the given certificate (in base64 encoding) and
+	 * file (or the sample document, if userfile is null). This method is also used by BatchSignatureController.
+	 */
+	static PadesSignatureStarter createSignatureStarter(String certificate, String userfile) throws IOException, RestException {
+
 		// Instantiate the PadesSignatureStarter class, responsible for receiving the signature elements and start the
 		// signature process. For more information, see:
 		// https://pki.rest/Content/docs/java-client/index.html?com/lacunasoftware/restpki/PadesSignatureStarter.html
@@ -103,58 +150,24 @@ public class PadesSignatureController {
 		// Set the visual representation created
 		signatureStarter.setVisualRepresentation(visualRepresentation);
 
-		// Call the start() method, which initiates the signature on REST PKI. This yields the parameters for the
-		// client-side signature, which we'll use to render the page for the final step, where the actual signature will
-		// be performed.
-		ClientSideSignatureInstructions signatureInstructions;
-		try {
-			signatureInstructions = signatureStarter.start();
-		} catch (ValidationException e) {
-			// The call above may throw a ValidationException if the certificate fails the initial validations (for
-			// instance, if it is expired). If so, we'll render a page showing what went wrong.
-			model.addAttribute("title", "Validation of the certificate failed");
-			// The toString() method of the ValidationResults object can be used to obtain the checks performed, but the
-			// string contains tabs and new line characters for formatting. Therefore, we call the method
-			// Util.getValidationResultsHtml() to convert these characters to <br>'s and &nbsp;'s.
-			model.addAttribute("vrHtml", Util.getValidationResultsHtml(e.getValidationResults()));
-			String retryUrl = "/pades-signature";
-			if (userfile != null && !userfile.isEmpty()) {
-				retryUrl += "?userfile=" + userfile;
-			}
-			model.addAttribute("retryUrl", retryUrl);
-			return "validation-failed";
-		}
-
-		// Among the data returned by the start() method is the token, a string which identifies this signature process.
-		// This token can only be used for a single signature attempt. In order to retry the signature it is
-		// necessary to get a new token. This can be a problem if the user uses the back button of the browser, since the
-		// browser might show a cached page that we rendered previously, with a now stale token. To prevent this from
-		// happening, we call the method Util.setNoCacheHeaders(), which sets HTTP headers to prevent caching of the page.
-		Util.setNoCacheHeaders(response);
-
-		// Render the page for the final step of the signature process, on which the actual signature will be performed
-		// (templates/pades-signature-step2.html)
-		model.addAttribute("selectedCertThumb", selectedCertThumb);
-		model.addAttribute("token", signatureInstructions.getToken());
-		model.addAttribute("toSignHash", signatureInstructions.getToSignHash());
-		model.addAttribute("digestAlg", signatureInstructions.getDigestAlgorithmOid());
-		model.addAttribute("userfile", userfile);
-		return "pades-signature-step2";
+		return signatureStarter;
 	}
 
-	// This method is called by the get() method. It contains examples of signature visual representation positionings.
-	private PadesVisualPositioning getVisualRepresentationPosition(int sampleNumber) throws RestException {
+	// This method is called by the createSignatureStarter() method. It contains examples of signature visual
+	// representation positionings.
+	private static PadesVisualPositioning getVisualRepresentationPosition(int sampleNumber) throws RestException {
 
 		switch (sampleNumber) {
 
 			case 1:
 				// Example #1: automatic positioning on footnote. This will insert the signature, and future signatures,
-				// ordered as a footnote of the last page of the document
-				return PadesVisualPositioning.getFootnote(Util.getRestPkiClient());
+				// ordered as a footnote of the last page of the document. The presets are kept in a local cache (see
+				// PadesVisualPositioningPresets), which saves a round trip to REST PKI on every signature.
+				return PadesVisualPositioningPresets.getFootnote();
 
 			case 2:
 				// Example #2: get the footnote positioning preset and customize it
-				PadesVisualAutoPositioning footnotePosition = PadesVisualPositioning.getFootnote(Util.getRestPkiClient());
+				PadesVisualAutoPositioning footnotePosition = PadesVisualPositioningPresets.getFootnote();
 				footnotePosition.getContainer().setLeft(2.54);
 				footnotePosition.getContainer().setBottom(2.54);
 				footnotePosition.getContainer().setRight(2.54);
@@ -163,11 +176,11 @@ public class PadesSignatureController {
 			case 3:
 				// Example #3: automatic positioning on new page. This will insert the signature, and future signatures,
 				// in a new page appended to the end of the document.
-				return PadesVisualPositioning.getNewPage(Util.getRestPkiClient());
+				return PadesVisualPositioningPresets.getNewPage();
 
 			case 4:
 				// Example #4: get the "new page" positioning preset and customize it
-				PadesVisualAutoPositioning newPagePos = PadesVisualPositioning.getNewPage(Util.getRestPkiClient());
+				PadesVisualAutoPositioning newPagePos = PadesVisualPositioningPresets.getNewPage();
 				newPagePos.getContainer().setLeft(2.54);
 				newPagePos.getContainer().setTop(2.54);
 				newPagePos.getContainer().setRight(2.54);
@@ -217,21 +230,21 @@ public class PadesSignatureController {
 		Model model
 	) throws IOException, RestException {
 
-		// Instantiate the PadesSignatureFinisher class, responsible for completing the signature process. For more
-		// information, see:
-		// https://pki.rest/Content/docs/java-client/index.html?com/lacunasoftware/restpki/PadesSignatureFinisher.html
-		PadesSignatureFinisher signatureFinisher = new PadesSignatureFinisher(Util.getRestPkiClient());
+		// Instantiate the PadesSignatureFinisher2 class, responsible for completing the signature process. Unlike the
+		// PadesSignatureFinisher class, whose finish() method returns the whole signed file as a byte array, it yields a
+		// SignatureResult from which the signed file can be read as a stream.
+		PadesSignatureFinisher2 signatureFinisher = new PadesSignatureFinisher2(Util.getRestPkiClient());
 
 		// Set the token for this signature (rendered in a hidden input field, see file templates/pades-signature.html)
 		signatureFinisher.setToken(token);
 
 		// Set the result of the signature operation
-		signatureFinisher.setSignature(signature);
+		signatureFinisher.setSignature(Util.convertFromBase64String(signature));
 
-		// Call the finish() method, which finalizes the signature process and returns the signed PDF's bytes
-		byte[] signedPdf;
+		// Call the finish() method, which finalizes the signature process and returns a SignatureResult object
+		SignatureResult signatureResult;
 		try {
-			signedPdf = signatureFinisher.finish();
+			signatureResult = signatureFinisher.finish();
 		} catch (ValidationException e) {
 			// The call above may throw a ValidationException if any validation errors occur (for instance, if the
 			// certificate is revoked). If so, we'll render a page showing what went wrong.
@@ -243,15 +256,17 @@ public class PadesSignatureController {
 			return "validation-failed";
 		}
 
-		// Get information about the certificate used by the user to sign the file. This method must only be called after
-		// calling the finish() method.
-		PKCertificate signerCert = signatureFinisher.getCertificateInfo();
+		// The "certificate" field of the SignatureResult object contains information about the certificate used by the
+		// user to sign the file.
+		PKCertificate signerCert = signatureResult.getCertificate();
 
 		// At this point, you'd typically store the signed PDF on your database. For demonstration purposes, we'll
 		// store the PDF on a temporary folder and return to the page an identifier that can be used to download it.
 
+		// The signed file is written to disk with writeToFile(). Avoid the method getContent(), which returns yet another
+		// copy of the file as a byte array.
 		String filename = UUID.randomUUID() + ".pdf";
-		Files.write(Application.getTempFolderPath().resolve(filename), signedPdf);
+		signatureResult.writeToFile(Application.getTempFolderPath().resolve(filename));
 		model.addAttribute("signerCert", signerCert);
 		model.addAttribute("filename", filename);
 		return "pades-signature-info";
@@ -0,0 +1,147 @@
+package sample.util;
+
+import com.lacunasoftware.restpki.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Local cache of the auto-positioning presets provided by REST PKI (footnote and new page).
+ * <p>
+ * The presets never change between calls, so instead of fetching them on every signature start
+ * we keep a copy in memory, refreshing it in the background once it gets older than the configured
+ * time-to-live (see ttlMinutes below). Each call returns a new copy of the cached preset, so callers are free to
+ * customize the returned positioning.
+ */
+public class PadesVisualPositioningPresets {
+
+	// How long the presets are kept before being refreshed in the background.
+	private static final long ttlMinutes = 60;
+
+	private static final Entry footnote = new Entry() {
+		@Override
+		protected PadesVisualAutoPositioning fetch() throws RestException {
+			return PadesVisualPositioning.getFootnote(Util.getRestPkiClient());
+		}
+	};
+
+	private static final Entry newPage = new Entry() {
+		@Override
+		protected PadesVisualAutoPositioning fetch() throws RestException {
+			return PadesVisualPositioning.getNewPage(Util.getRestPkiClient());
+		}
+	};
+
+	private static final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "pades-positioning-presets");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Returns a copy of the footnote positioning preset (equivalent to
+	 * PadesVisualPositioning.getFootnote()).
+	 */
+	public static PadesVisualAutoPositioning getFootnote() throws RestException {
+		return copy(footnote.get());
+	}
+
+	/**
+	 * Returns a copy of the "new page" positioning preset (equivalent to
+	 * PadesVisualPositioning.getNewPage()).
+	 */
+	public static PadesVisualAutoPositioning getNewPage() throws RestException {
+		return copy(newPage.get());
+	}
+
+	/**
+	 * Loads the presets in the background, so that the first signature doesn't pay for the round
+	 * trip. Failures (for instance, if the access token was not set yet) are ignored, the presets
+	 * will be fetched again on first use.
+	 */
+	public static void warmUp() {
+		footnote.refreshAsync();
+		newPage.refreshAsync();
+	}
+
+	private static PadesVisualAutoPositioning copy(PadesVisualAutoPositioning preset) {
+		PadesSize size = preset.getSignatureRectangleSize();
+		return new PadesVisualAutoPositioning(
+			preset.getPageNumber(),
+			preset.getMeasurementUnits(),
+			copy(preset.getContainer()),
+			size != null ? new PadesSize(size.getWidth(), size.getHeight()) : null,
+			preset.getRowSpacing()
+		);
+	}
+
+	private static PadesVisualRectangle copy(PadesVisualRectangle rectangle) {
+		if (rectangle == null) {
+			return null;
+		}
+		PadesVisualRectangle copy = new PadesVisualRectangle();
+		copy.setLeft(rectangle.getLeft());
+		copy.setTop(rectangle.getTop());
+		copy.setRight(rectangle.getRight());
+		copy.setBottom(rectangle.getBottom());
+		copy.setWidth(rectangle.getWidth());
+		copy.setHeight(rectangle.getHeight());
+		return copy;
+	}
+
+	private static abstract class Entry {
+
+		private volatile PadesVisualAutoPositioning value;
+		private volatile long loadedAt;
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+
+		protected abstract PadesVisualAutoPositioning fetch() throws RestException;
+
+		PadesVisualAutoPositioning get() throws RestException {
+			PadesVisualAutoPositioning current = value;
+			if (current == null) {
+				// Nothing cached yet, we have to wait for REST PKI.
+				synchronized (this) {
+					current = value;
+					if (current == null) {
+						current = load();
+					}
+				}
+			} else if (System.currentTimeMillis() - loadedAt > ttlMinutes * 60 * 1000) {
+				// Serve the cached preset while a fresh one is fetched in the background.
+				refreshAsync();
+			}
+			return current;
+		}
+
+		void refreshAsync() {
+			if (!refreshing.compareAndSet(false, true)) {
+				return;
+			}
+			refreshExecutor.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						load();
+					} catch (Exception e) {
+						// Keep the previous value, we'll try again on the next access.
+					} finally {
+						refreshing.set(false);
+					}
+				}
+			});
+		}
+
+		private PadesVisualAutoPositioning load() throws RestException {
+			PadesVisualAutoPositioning fetched = fetch();
+			loadedAt = System.currentTimeMillis();
+			value = fetched;
+			return fetched;
+		}
+	}
+}
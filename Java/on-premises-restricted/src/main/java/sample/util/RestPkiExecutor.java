@@ -0,0 +1,34 @@
+package sample.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared executor used to run calls to REST PKI concurrently (for instance, when starting or completing the signatures
+ * of a batch of documents, see BatchSignatureController).
+ * <p>
+ * The number of calls made simultaneously is bounded (see maxConcurrentCalls below), so that a large batch does not
+ * open an unbounded number of connections to REST PKI.
+ */
+public class RestPkiExecutor {
+
+	// Maximum number of calls to REST PKI made simultaneously.
+	private static final int maxConcurrentCalls = 10;
+
+	private static final ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentCalls, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "restpki-worker-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public static ExecutorService get() {
+		return executor;
+	}
+}
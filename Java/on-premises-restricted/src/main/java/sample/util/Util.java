@@ -109,4 +109,8 @@ public class Util {
 	public static String getValidationResultsHtml(ValidationResults vr) {
 		return vr.toString().replaceAll("\n", "<br>").replaceAll("\t", "&nbsp;&nbsp;&nbsp;&nbsp;");
 	}
+
+	public static byte[] convertFromBase64String(String contentBase64) {
+		return java.util.Base64.getDecoder().decode(contentBase64);
+	}
 }
@@ -0,0 +1,231 @@
+/*
+ * This file contains the necessary calls to the Web PKI component and to the server to sign a batch of documents with
+ * two requests to the server:
+ *
+ * 1. The encoding of the chosen certificate is sent to /batch-signature-start, which starts all signatures and returns
+ *    the hash to be signed of each document.
+ * 2. The user authorizes all signatures at once, and the hashes are signed with the Web PKI component, one after the
+ *    other.
+ * 3. The signatures are sent to /batch-signature-complete, which completes all signatures and returns the name of each
+ *    signed file.
+ */
+
+// Get an instance of the LacunaWebPKI object
+var pki = new LacunaWebPKI();
+
+// Number of copies of the sample document to sign
+var batchSize = 10;
+
+// -------------------------------------------------------------------------------------------------
+// Function called once the page is loaded
+// -------------------------------------------------------------------------------------------------
+function init() {
+
+    // Wireup of button clicks
+    $('#signButton').click(sign);
+    $('#refreshButton').click(refresh);
+
+    // Block the UI while we get things ready
+    $.blockUI();
+
+    // Call the init() method on the LacunaWebPKI object, passing a callback for when
+    // the component is ready to be used and another to be called when an error occurs
+    // on any of the subsequent operations. For more information, see:
+    // https://webpki.lacunasoftware.com/#/Documentation#coding-the-first-lines
+    // http://webpki.lacunasoftware.com/Help/classes/LacunaWebPKI.html#method_init
+    pki.init({
+        ready: loadCertificates, // as soon as the component is ready we'll load the certificates
+        defaultError: onWebPkiError
+    });
+}
+
+// -------------------------------------------------------------------------------------------------
+// Function called when the user clicks the "Refresh" button
+// -------------------------------------------------------------------------------------------------
+function refresh() {
+    // Block the UI while we load the certificates
+    $.blockUI();
+    // Invoke the loading of the certificates
+    loadCertificates();
+}
+
+// -------------------------------------------------------------------------------------------------
+// Function that loads the certificates, either on startup or when the user
+// clicks the "Refresh" button. At this point, the UI is already blocked.
+// -------------------------------------------------------------------------------------------------
+function loadCertificates() {
+
+    // Call the listCertificates() method to list the user's certificates
+    pki.listCertificates({
+
+        // specify that expired certificates should be ignored
+        filter: pki.filters.isWithinValidity,
+
+        // id of the select to be populated with the certificates
+        selectId: 'certificateSelect',
+
+        // function that will be called to get the text that should be displayed for each option
+        selectOptionFormatter: function (cert) {
+            return cert.subjectName + ' (issued by ' + cert.issuerName + ')';
+        }
+
+    }).success(function () {
+
+        // once the certificates have been listed, unblock the UI
+        $.unblockUI();
+
+    });
+}
+
+// -------------------------------------------------------------------------------------------------
+// Function called when the user clicks the "Sign Batch" button
+// -------------------------------------------------------------------------------------------------
+function sign() {
+
+    // Block the UI while we perform the signatures
+    $.blockUI();
+    $('#docList').empty();
+
+    // Get the thumbprint of the selected certificate
+    var selectedCertThumbprint = $('#certificateSelect').val();
+
+    // Read the certificate's encoding and start all signatures on the server
+    pki.readCertificate(selectedCertThumbprint).success(function (certificate) {
+        $.ajax({
+            method: 'POST',
+            url: '/batch-signature-start',
+            data: { certificate: certificate, count: batchSize },
+            dataType: 'json',
+            success: function (startResults) {
+                preauthorizeSignatures(selectedCertThumbprint, startResults);
+            },
+            error: onServerError
+        });
+    });
+}
+
+// -------------------------------------------------------------------------------------------------
+// Function that asks the user to authorize the signatures of all started documents, so that only one
+// confirmation dialog is shown instead of one per document
+// -------------------------------------------------------------------------------------------------
+function preauthorizeSignatures(thumbprint, startResults) {
+
+    var signatureCount = 0;
+    $.each(startResults, function (i, result) {
+        if (!result.error) {
+            signatureCount++;
+        }
+    });
+    if (signatureCount == 0) {
+        signHashes(thumbprint, startResults, 0, [], [], []);
+        return;
+    }
+
+    pki.preauthorizeSignatures({
+        certificateThumbprint: thumbprint,
+        signatureCount: signatureCount // Number of signatures to be authorized by the user
+    }).success(function () {
+        signHashes(thumbprint, startResults, 0, [], [], []);
+    });
+}
+
+// -------------------------------------------------------------------------------------------------
+// Function that signs the hash of each started signature, one after the other, and then completes
+// all signatures on the server
+// -------------------------------------------------------------------------------------------------
+function signHashes(thumbprint, startResults, index, tokens, signatures, docIndexes) {
+
+    if (index == startResults.length) {
+        completeSignatures(tokens, signatures, docIndexes);
+        return;
+    }
+
+    var result = startResults[index];
+    if (result.error) {
+        // The signature of this document could not be started, skip it
+        renderError(index, result.error);
+        signHashes(thumbprint, startResults, index + 1, tokens, signatures, docIndexes);
+        return;
+    }
+
+    // Call signHash() on the Web PKI component using the parameters given by REST PKI
+    pki.signHash({
+        thumbprint: thumbprint,
+        hash: result.toSignHash,
+        digestAlgorithm: result.digestAlgorithmOid
+    }).success(function (signature) {
+        tokens.push(result.token);
+        signatures.push(signature);
+        docIndexes.push(index);
+        signHashes(thumbprint, startResults, index + 1, tokens, signatures, docIndexes);
+    }).error(function (message) {
+        // The hash of this document could not be signed, skip it and go on with the others
+        renderError(index, message);
+        signHashes(thumbprint, startResults, index + 1, tokens, signatures, docIndexes);
+    });
+}
+
+// -------------------------------------------------------------------------------------------------
+// Function that sends all signatures to the server to be completed
+// -------------------------------------------------------------------------------------------------
+function completeSignatures(tokens, signatures, docIndexes) {
+
+    if (tokens.length == 0) {
+        $.unblockUI();
+        return;
+    }
+
+    $.ajax({
+        method: 'POST',
+        url: '/batch-signature-complete',
+        // Send the tokens and signatures as repeated parameters (token=...&token=...&signature=...)
+        traditional: true,
+        data: { token: tokens, signature: signatures },
+        dataType: 'json',
+        success: function (completeResults) {
+            $.each(completeResults, function (i, result) {
+                if (result.error) {
+                    renderError(docIndexes[i], result.error);
+                } else {
+                    $('#docList').append(
+                        $('<li />').append(
+                            $('<a />').attr('href', '/files/' + result.filename).text('Document ' + (docIndexes[i] + 1))
+                        )
+                    );
+                }
+            });
+            $.unblockUI();
+        },
+        error: onServerError
+    });
+}
+
+function renderError(index, message) {
+    $('#docList').append($('<li />').text('Document ' + (index + 1) + ': ' + message));
+}
+
+// -------------------------------------------------------------------------------------------------
+// Function called if an error occurs on a request to the server
+// -------------------------------------------------------------------------------------------------
+function onServerError(jqXHR, textStatus, errorThrown) {
+    $.unblockUI();
+    alert('An error has occurred on the server: ' + (errorThrown || textStatus));
+}
+
+// -------------------------------------------------------------------------------------------------
+// Function called if an error occurs on the Web PKI component
+// -------------------------------------------------------------------------------------------------
+function onWebPkiError(message, error, origin) {
+    // Unblock the UI
+    $.unblockUI();
+    // Log the error to the browser console (for debugging purposes)
+    if (console) {
+        console.log('An error has occurred on the signature browser component: ' + message, error);
+    }
+    // Show the message to the user. You might want to substitute the alert below with a more user-friendly UI
+    // component to show the error.
+    alert(message);
+}
+
+// Schedule the init function to be called once the page is loaded
+$(document).ready(init);
@@ -0,0 +1,43 @@
+package sample.benchmark;
+
+import com.lacunasoftware.restpki.AlphaCode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the verification code helpers used by the printer-friendly version and check
+ * samples.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlphaCodeBenchmark {
+
+	private String code;
+	private String formattedCode;
+
+	@Setup
+	public void setup() {
+		code = AlphaCode.generate();
+		formattedCode = AlphaCode.format(code);
+	}
+
+	@Benchmark
+	public String generate() {
+		return AlphaCode.generate();
+	}
+
+	@Benchmark
+	public String format() {
+		return AlphaCode.format(code);
+	}
+
+	@Benchmark
+	public String parse() {
+		return AlphaCode.parse(formattedCode);
+	}
+}
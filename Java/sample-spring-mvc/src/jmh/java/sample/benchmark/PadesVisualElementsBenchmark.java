@@ -0,0 +1,34 @@
+package sample.benchmark;
+
+import com.lacunasoftware.restpki.PdfMark;
+import org.openjdk.jmh.annotations.*;
+import sample.util.PadesVisualElements;
+import sample.util.StaticAssets;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the construction of the PDF marks used by the PAdES samples.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PadesVisualElementsBenchmark {
+
+	@Param({"1", "2", "3", "4"})
+	public int sampleNumber;
+
+	@Setup
+	public void setup() throws IOException {
+		StaticAssets.load();
+	}
+
+	@Benchmark
+	public PdfMark getPdfMark() {
+		return PadesVisualElements.getPdfMark(sampleNumber);
+	}
+}
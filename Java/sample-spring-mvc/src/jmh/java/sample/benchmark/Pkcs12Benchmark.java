@@ -0,0 +1,43 @@
+package sample.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.ClassPathResource;
+import sample.util.KeyStoreCache;
+import sample.util.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the loading of the PKCS#12 file used by the server-key samples, with and without
+ * the cache (see KeyStoreCache).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Pkcs12Benchmark {
+
+	@Benchmark
+	public Key loadUncached() throws IOException, GeneralSecurityException {
+		KeyStore keyStore = KeyStore.getInstance("pkcs12");
+		InputStream stream = new ClassPathResource("/static/Pierre de Fermat.pfx").getInputStream();
+		try {
+			keyStore.load(stream, "1234".toCharArray());
+		} finally {
+			stream.close();
+		}
+		return keyStore.getKey(keyStore.aliases().nextElement(), "1234".toCharArray());
+	}
+
+	@Benchmark
+	public KeyStoreCache.KeyEntry loadCached() throws IOException, GeneralSecurityException {
+		return Util.getSampleKeyEntryFromPKCS12();
+	}
+}
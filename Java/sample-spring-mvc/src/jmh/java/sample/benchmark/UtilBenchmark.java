@@ -0,0 +1,54 @@
+package sample.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sample.util.StaticAssets;
+import sample.util.Util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the helpers on Util.java that are called on every signature.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+
+	private byte[] stampContent;
+	private String stampBase64;
+	private List<String> signerNames;
+
+	@Setup
+	public void setup() throws IOException {
+		StaticAssets.load();
+		stampContent = Util.getPdfStampContent();
+		stampBase64 = Util.convertToBase64String(stampContent);
+		signerNames = Arrays.asList("Pierre de Fermat", "Leonhard Euler", "Carl Friedrich Gauss");
+	}
+
+	@Benchmark
+	public byte[] getPdfStampContent() throws IOException {
+		return Util.getPdfStampContent();
+	}
+
+	@Benchmark
+	public String convertToBase64String() {
+		return Util.convertToBase64String(stampContent);
+	}
+
+	@Benchmark
+	public byte[] convertFromBase64String() {
+		return Util.convertFromBase64String(stampBase64);
+	}
+
+	@Benchmark
+	public String joinStringsPt() {
+		return Util.joinStringsPt(signerNames);
+	}
+}
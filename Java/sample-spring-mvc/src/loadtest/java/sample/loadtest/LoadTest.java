@@ -0,0 +1,394 @@
+package sample.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lacunasoftware.restpki.AlphaCode;
+import sample.Application;
+import sample.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load test of the signature flows of the sample, run against the local stand-in for REST PKI
+ * (see MockRestPkiServer).
+ * <p>
+ * The mock and the application are started on this same JVM, with the application's REST PKI
+ * endpoint pointing to the mock. Then each scenario
+ * (PAdES, CAdES, batch, file download and check) is run in turn by a number of concurrent
+ * simulated users. The step performed by Web PKI on the browser (signing with the user's
+ * certificate) is simulated by a pause between the start and the completion of each signature.
+ * <p>
+ * For each endpoint, the latency percentiles, the throughput and the errors are reported, along
+ * with the garbage collections and heap usage during the scenario. Since the application and the
+ * simulated users share the JVM, the heap and GC figures include the users' own (small) overhead.
+ * <p>
+ * Parameters (system properties):
+ * <ul>
+ * <li>loadtest.users: number of concurrent users (default 20)</li>
+ * <li>loadtest.iterations: number of times each scenario is run (default 200)</li>
+ * <li>loadtest.port: port on which the application is started (default 60963)</li>
+ * <li>loadtest.webPkiDelayMillis: simulated duration of the Web PKI step (default 50)</li>
+ * <li>loadtest.batchSize: number of documents signed on each iteration of the batch scenario
+ * (default 10)</li>
+ * <li>loadtest.startApp: whether to start the mock and the application, set to false to test an
+ * application already running (default true)</li>
+ * <li>restpki.mock.port: port on which the mock listens (default 60964)</li>
+ * <li>restpki.mock.latencyMillis: time the mock waits before responding to each call, to simulate
+ * the latency of a real REST PKI (default 100)</li>
+ * <li>restpki.mock.errorRate: fraction of the calls (between 0 and 1) on which the mock fails, to
+ * simulate failures (default 0)</li>
+ * <li>loadtest.profiles: additional profiles with which the application is started, for instance
+ * "virtual-threads" (requires Java 21 or later). Running the test with and without this profile
+ * compares request handling on platform threads and on virtual threads (default none)</li>
+ * </ul>
+ * Properties of the application can be passed as system properties as well.
+ */
+public class LoadTest {
+
+	private static final Pattern tokenPattern = Pattern.compile("id=\"tokenField\"[^>]*value=\"([^\"]+)\"");
+	private static final Pattern filenamePattern = Pattern.compile("href=\"/files/([^\"]+)\"");
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final String baseUrl;
+	private final int users;
+	private final int iterations;
+	private final long webPkiDelayMillis;
+	private final int batchSize;
+	private final boolean inProcess;
+
+	// Latencies (in nanoseconds) and errors of the requests of the current scenario, by endpoint
+	private final Map<String, List<Long>> latencies = new LinkedHashMap<String, List<Long>>();
+	private final Map<String, AtomicInteger> errors = new LinkedHashMap<String, AtomicInteger>();
+
+	// Files signed on the PAdES scenario, used on the download and check scenarios
+	private final List<String> signedFiles = Collections.synchronizedList(new ArrayList<String>());
+
+	public LoadTest(String baseUrl, int users, int iterations, long webPkiDelayMillis, int batchSize, boolean inProcess) {
+		this.baseUrl = baseUrl;
+		this.users = users;
+		this.iterations = iterations;
+		this.webPkiDelayMillis = webPkiDelayMillis;
+		this.batchSize = batchSize;
+		this.inProcess = inProcess;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int port = Integer.getInteger("loadtest.port", 60963);
+		boolean startApp = Boolean.parseBoolean(System.getProperty("loadtest.startApp", "true"));
+		String profiles = "development";
+		String extraProfiles = System.getProperty("loadtest.profiles", "");
+		if (extraProfiles.length() > 0) {
+			profiles += "," + extraProfiles;
+		}
+
+		MockRestPkiServer mock = null;
+		if (startApp) {
+			int mockPort = Integer.getInteger("restpki.mock.port", 60964);
+			mock = new MockRestPkiServer(
+				Long.getLong("restpki.mock.latencyMillis", 100L),
+				Double.parseDouble(System.getProperty("restpki.mock.errorRate", "0"))
+			);
+			mock.start(mockPort);
+
+			System.out.printf("Starting the application with the profiles %s%n", profiles);
+			Application.main(new String[] {
+				"--spring.profiles.active=" + profiles,
+				"--server.port=" + port,
+				"--restpki.endpoint=http://localhost:" + mockPort + "/",
+				"--restpki.accessToken=mock-access-token"
+			});
+		}
+
+		LoadTest loadTest = new LoadTest(
+			"http://localhost:" + port,
+			Integer.getInteger("loadtest.users", 20),
+			Integer.getInteger("loadtest.iterations", 200),
+			Long.getLong("loadtest.webPkiDelayMillis", 50L),
+			Integer.getInteger("loadtest.batchSize", 10),
+			startApp
+		);
+		loadTest.run();
+
+		if (mock != null && mock.getUnhandledCount() > 0) {
+			System.out.printf("%nWARNING: %d calls to REST PKI are not implemented by the mock (see the log), the figures above are not reliable%n", mock.getUnhandledCount());
+		}
+
+		// The application started above keeps non-daemon threads (Tomcat's) running. The test always
+		// runs on a JVM of its own (exec:exec on Maven, JavaExec on Gradle), so the JVM is ended here.
+		System.exit(0);
+	}
+
+	public void run() throws Exception {
+
+		System.out.printf("Load test: %d users, %d iterations per scenario, Web PKI step of %d ms%n%n", users, iterations, webPkiDelayMillis);
+		System.out.printf("%-36s %8s %8s %10s %10s %10s %10s%n", "Endpoint", "Requests", "Errors", "Req/s", "p50 (ms)", "p99 (ms)", "Max (ms)");
+
+		runScenario("PAdES signature", () -> {
+			String token = parse(tokenPattern, request("GET", "/pades-signature", null, "GET /pades-signature"));
+			simulateWebPki();
+			signedFiles.add(parse(filenamePattern, request("POST", "/pades-signature", "token=" + encode(token), "POST /pades-signature")));
+		});
+
+		runScenario("CAdES signature", () -> {
+			String token = parse(tokenPattern, request("GET", "/cades-signature", null, "GET /cades-signature"));
+			simulateWebPki();
+			request("POST", "/cades-signature", "token=" + encode(token), "POST /cades-signature");
+		});
+
+		// Each iteration signs a whole batch the way the batch signature page does: all signatures
+		// are started with a single request and completed with another one.
+		runScenario("Batch signature", () -> {
+			StringBuilder ids = new StringBuilder();
+			for (int i = 0; i < batchSize; i++) {
+				ids.append(i > 0 ? "," : "").append(ThreadLocalRandom.current().nextInt(1, 31));
+			}
+			JsonNode started = mapper.readTree(request("POST", "/batch-signature-start-many", "ids=" + ids, "POST /batch-signature-start-many"));
+			StringBuilder tokens = new StringBuilder();
+			for (JsonNode result : started) {
+				if (result.hasNonNull("token")) {
+					tokens.append(tokens.length() > 0 ? "," : "").append(result.get("token").asText());
+				}
+			}
+			countDocumentErrors(started, "POST /batch-signature-start-many");
+			simulateWebPki();
+			JsonNode completed = mapper.readTree(request("POST", "/batch-signature-complete-many", "tokens=" + encode(tokens.toString()), "POST /batch-signature-complete-many"));
+			countDocumentErrors(completed, "POST /batch-signature-complete-many");
+		});
+
+		if (signedFiles.isEmpty()) {
+			System.out.println("No file was signed, skipping the download and check scenarios");
+			return;
+		}
+
+		runScenario("Download", () -> {
+			request("GET", "/files/" + pickSignedFile(), null, "GET /files/{filename}");
+		});
+
+		if (!inProcess) {
+			System.out.println("The application is not running on this JVM, skipping the check scenario");
+			return;
+		}
+
+		// Register a verification code for each signed file, as done by the printer-friendly
+		// version sample. The check scenario then looks them up.
+		final List<String> codes = new ArrayList<String>();
+		for (String fileId : signedFiles) {
+			String code = Util.getVerificationCodeStore().getVerificationCode(fileId);
+			if (code == null) {
+				code = AlphaCode.generate();
+				Util.getVerificationCodeStore().setVerificationCode(fileId, code);
+			}
+			codes.add(code);
+		}
+		runScenario("Check", () -> {
+			String code = codes.get(ThreadLocalRandom.current().nextInt(codes.size()));
+			request("GET", "/check?c=" + encode(code), null, "GET /check");
+		});
+	}
+
+	private interface Iteration {
+		void run() throws Exception;
+	}
+
+	private void runScenario(String name, final Iteration iteration) throws Exception {
+
+		latencies.clear();
+		errors.clear();
+
+		System.gc();
+		long gcCountBefore = getGcCount();
+		long gcTimeBefore = getGcTimeMillis();
+		long start = System.nanoTime();
+
+		final AtomicInteger remaining = new AtomicInteger(iterations);
+		ExecutorService executor = Executors.newFixedThreadPool(users);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < users; i++) {
+				futures.add(executor.submit(() -> {
+					while (remaining.getAndDecrement() > 0) {
+						try {
+							iteration.run();
+						} catch (Exception e) {
+							// The failed request was already counted, the iteration is abandoned.
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+		long gcCount = getGcCount() - gcCountBefore;
+		long gcTimeMillis = getGcTimeMillis() - gcTimeBefore;
+		long heapUsedMb = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024);
+
+		for (Map.Entry<String, List<Long>> entry : latencies.entrySet()) {
+			long[] sorted = toSortedArray(entry.getValue());
+			System.out.printf("%-36s %8d %8d %10.1f %10.1f %10.1f %10.1f%n",
+				entry.getKey(),
+				sorted.length,
+				errors.get(entry.getKey()).get(),
+				sorted.length / elapsedSeconds,
+				percentile(sorted, 0.50) / 1e6,
+				percentile(sorted, 0.99) / 1e6,
+				(sorted.length > 0 ? sorted[sorted.length - 1] : 0) / 1e6);
+		}
+		System.out.printf("  (%s: %.1f s, %d GCs taking %d ms, %d MB of heap in use at the end)%n", name, elapsedSeconds, gcCount, gcTimeMillis, heapUsedMb);
+	}
+
+	private String request(String method, String path, String form, String endpoint) throws IOException {
+		List<Long> endpointLatencies;
+		AtomicInteger endpointErrors;
+		synchronized (latencies) {
+			endpointLatencies = latencies.get(endpoint);
+			if (endpointLatencies == null) {
+				endpointLatencies = Collections.synchronizedList(new ArrayList<Long>());
+				latencies.put(endpoint, endpointLatencies);
+				errors.put(endpoint, new AtomicInteger());
+			}
+			endpointErrors = errors.get(endpoint);
+		}
+
+		long start = System.nanoTime();
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+			connection.setRequestMethod(method);
+			if (form != null) {
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+				OutputStream outStream = connection.getOutputStream();
+				outStream.write(form.getBytes(StandardCharsets.UTF_8));
+				outStream.close();
+			}
+			int status = connection.getResponseCode();
+			InputStream inStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			String body = readFully(inStream);
+			if (status >= 400) {
+				throw new IOException(endpoint + " returned " + status);
+			}
+			return body;
+		} catch (IOException e) {
+			endpointErrors.incrementAndGet();
+			throw e;
+		} finally {
+			endpointLatencies.add(System.nanoTime() - start);
+		}
+	}
+
+	// Counts the documents of a batch response that failed as errors of the endpoint.
+	private void countDocumentErrors(JsonNode results, String endpoint) {
+		for (JsonNode result : results) {
+			if (result.hasNonNull("error")) {
+				synchronized (latencies) {
+					errors.get(endpoint).incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private void simulateWebPki() throws InterruptedException {
+		if (webPkiDelayMillis > 0) {
+			Thread.sleep(webPkiDelayMillis);
+		}
+	}
+
+	private String pickSignedFile() {
+		synchronized (signedFiles) {
+			return signedFiles.get(ThreadLocalRandom.current().nextInt(signedFiles.size()));
+		}
+	}
+
+	private static String parse(Pattern pattern, String body) throws IOException {
+		Matcher matcher = pattern.matcher(body);
+		if (!matcher.find()) {
+			throw new IOException("Unexpected response: " + pattern.pattern() + " not found");
+		}
+		return matcher.group(1);
+	}
+
+	private static String encode(String value) throws IOException {
+		return URLEncoder.encode(value, "UTF-8");
+	}
+
+	private static String readFully(InputStream stream) throws IOException {
+		if (stream == null) {
+			return "";
+		}
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] chunk = new byte[8192];
+			int read;
+			while ((read = stream.read(chunk)) >= 0) {
+				buffer.write(chunk, 0, read);
+			}
+			return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			stream.close();
+		}
+	}
+
+	private static long[] toSortedArray(List<Long> values) {
+		long[] array;
+		synchronized (values) {
+			array = new long[values.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = values.get(i);
+			}
+		}
+		Arrays.sort(array);
+		return array;
+	}
+
+	private static long percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long getGcTimeMillis() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+}
@@ -0,0 +1,360 @@
+package sample.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sample.util.VirtualThreads;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for REST PKI, used by the load test (see LoadTest) to run the samples without a
+ * REST PKI endpoint or access token. It is not part of the application.
+ * <p>
+ * The server implements the calls made by the samples (start and finish of signatures, opening of
+ * signatures, uploads, PDF marks and positioning presets) with responses that are just complete
+ * enough for the samples to render their pages: no signature is actually performed or validated.
+ * A fixed latency and a rate of failures can be configured, so that the overhead of the
+ * application itself can be measured under realistic conditions.
+ * <p>
+ * Uploads follow the multipart flow of the client library: the upload is begun, each part is sent
+ * on its own request and the upload is then ended, after which its token is used as the blob
+ * token. A single-request upload is accepted as well. Errors are reported like REST PKI does,
+ * with status 422 and an error code (for instance, "BlobNotFound").
+ * <p>
+ * Requests that match none of the routes below are answered with 404 and counted (see
+ * getUnhandledCount()): the load test reports them, so that a call made by a newer version of the
+ * client library doesn't go unnoticed.
+ */
+public class MockRestPkiServer {
+
+	private static final Logger logger = LoggerFactory.getLogger(MockRestPkiServer.class);
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private static final SecureRandom random = new SecureRandom();
+
+	// Content returned as the "signed" file when the signed document is not known
+	private static final byte[] placeholderDocument = "%PDF-1.4\n% REST PKI mock\n%%EOF\n".getBytes(StandardCharsets.US_ASCII);
+
+	private final long latencyMillis;
+	private final double errorRate;
+
+	// Maximum number of files kept by the server. The oldest files are discarded first, so that
+	// long load tests don't exhaust the memory.
+	private static final int maxBlobs = 10000;
+
+	// Contents of the uploaded files (and of the files produced by the server), by blob token
+	private final Map<String, byte[]> blobs = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+			return size() > maxBlobs;
+		}
+	});
+
+	// Blob token of the document being signed on each signature process, by signature token
+	private final ConcurrentMap<String, String> signatures = new ConcurrentHashMap<String, String>();
+
+	// Parts received so far on each multipart upload that has not ended yet, by upload token
+	private final ConcurrentMap<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<String, Map<Integer, byte[]>>();
+
+	// Size of the parts requested on multipart uploads
+	private static final int partSize = 4 * 1024 * 1024;
+
+	private final AtomicInteger unhandledCount = new AtomicInteger();
+
+	private HttpServer server;
+
+	public MockRestPkiServer(long latencyMillis, double errorRate) {
+		this.latencyMillis = latencyMillis;
+		this.errorRate = errorRate;
+	}
+
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					handleRequest(exchange);
+				} catch (Exception e) {
+					logger.error("Error on mock REST PKI request " + exchange.getRequestURI(), e);
+					sendError(exchange, 500, "InternalError", e.toString());
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		// Most of the time of each request is spent on the simulated latency, so each request gets
+		// its own thread (a virtual thread, when supported).
+		Executor executor = VirtualThreads.newThreadPerTaskExecutor("restpki-mock-");
+		server.setExecutor(executor != null ? executor : Executors.newCachedThreadPool());
+		server.start();
+		logger.warn("Using a mock of REST PKI on port {} (latency {} ms, error rate {}). Signatures are NOT real.", port, latencyMillis, errorRate);
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	/**
+	 * Number of requests that matched none of the calls implemented by the mock.
+	 */
+	public int getUnhandledCount() {
+		return unhandledCount.get();
+	}
+
+	private void handleRequest(HttpExchange exchange) throws IOException, InterruptedException {
+
+		byte[] requestBody = IOUtils.toByteArray(exchange.getRequestBody());
+
+		if (latencyMillis > 0) {
+			Thread.sleep(latencyMillis);
+		}
+		if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+			sendError(exchange, 500, "MockError", "Error injected by the REST PKI mock");
+			return;
+		}
+
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getPath();
+
+		if (method.equals("GET") && path.contains("/PadesVisualPositioningPresets/")) {
+			sendJson(exchange, getPositioningPreset(path.endsWith("NewPage")));
+
+		} else if (method.equals("POST") && path.matches(".*/Api/MultipartUploads/?")) {
+			// Begin a multipart upload.
+			String token = generateToken();
+			uploads.put(token, new ConcurrentHashMap<Integer, byte[]>());
+			sendJson(exchange, mapper.createObjectNode().put("token", token).put("partSize", partSize));
+
+		} else if (method.equals("POST") && path.matches(".*/Api/MultipartUploads/[A-Za-z0-9_-]+/\\d+/?")) {
+			// Send a part of a multipart upload. The ETag returned is repeated by the client on the
+			// end of the upload.
+			String[] segments = path.replaceAll("/$", "").split("/");
+			Map<Integer, byte[]> parts = uploads.get(segments[segments.length - 2]);
+			if (parts == null) {
+				sendError(exchange, 422, "UploadNotFound", "Upload not found");
+				return;
+			}
+			int partNumber = Integer.parseInt(segments[segments.length - 1]);
+			parts.put(partNumber, requestBody);
+			exchange.getResponseHeaders().set("ETag", "\"" + partNumber + "-" + requestBody.length + "\"");
+			send(exchange, 200, "application/json", new byte[0]);
+
+		} else if (method.equals("POST") && path.matches(".*/Api/MultipartUploads/[A-Za-z0-9_-]+/?")) {
+			// End a multipart upload. The parts are joined and kept as a blob with the upload's token.
+			String token = path.replaceAll("/$", "").substring(path.replaceAll("/$", "").lastIndexOf('/') + 1);
+			Map<Integer, byte[]> parts = uploads.remove(token);
+			if (parts == null) {
+				sendError(exchange, 422, "UploadNotFound", "Upload not found");
+				return;
+			}
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			for (int i = 1; parts.containsKey(i); i++) {
+				content.write(parts.get(i));
+			}
+			blobs.put(token, content.toByteArray());
+			sendJson(exchange, mapper.createObjectNode().put("blobToken", token));
+
+		} else if (method.equals("POST") && path.matches(".*/Api/Uploads/?")) {
+			// Upload on a single request.
+			sendJson(exchange, mapper.createObjectNode().put("blobToken", storeBlob(requestBody)));
+
+		} else if (method.equals("GET") && path.matches(".*/Api/(Blobs|Files)/.+")) {
+			byte[] content = blobs.get(path.substring(path.lastIndexOf('/') + 1));
+			if (content == null) {
+				sendError(exchange, 422, "BlobNotFound", "Blob not found");
+			} else {
+				send(exchange, 200, "application/octet-stream", content);
+			}
+
+		} else if (method.equals("POST") && path.endsWith("/Open")) {
+			sendJson(exchange, path.contains("/XmlSignatures/") ? mapper.createArrayNode() : openSignature());
+
+		} else if (method.equals("POST") && path.endsWith("/AddMarks")) {
+			byte[] content = getReferencedContent(readJson(requestBody));
+			sendJson(exchange, mapper.createObjectNode().set("file", fileModel(storeBlob(content), content)));
+
+		} else if (method.equals("POST") && path.matches(".*/[A-Za-z0-9_-]{43}/(Finalize|SignedBytes)/?")) {
+			String[] segments = path.split("/");
+			sendJson(exchange, finishSignature(segments[segments.length - 2]));
+
+		} else if (method.equals("POST") && path.matches(".*/Api/(v2/)?(PadesSignatures|CadesSignatures|XmlSignatures/\\w+)/?")) {
+			sendJson(exchange, startSignature(readJson(requestBody)));
+
+		} else {
+			unhandledCount.incrementAndGet();
+			logger.warn("Call not implemented by the REST PKI mock: {} {}", method, path);
+			sendError(exchange, 404, "NotFound", "Not implemented by the REST PKI mock: " + method + " " + path);
+		}
+	}
+
+	private ObjectNode startSignature(JsonNode request) {
+		String token = generateToken();
+		String blobToken = findBlobToken(request);
+		if (blobToken != null) {
+			signatures.put(token, blobToken);
+		}
+		byte[] toSignHash = new byte[32];
+		random.nextBytes(toSignHash);
+		ObjectNode response = mapper.createObjectNode();
+		response.put("token", token);
+		response.put("toSignData", Base64.encodeBase64String(toSignHash));
+		response.put("toSignHash", Base64.encodeBase64String(toSignHash));
+		response.put("digestAlgorithmOid", "2.16.840.1.101.3.4.2.1");
+		response.put("signatureAlgorithmOid", "1.2.840.113549.1.1.11");
+		response.set("certificate", certificateModel());
+		return response;
+	}
+
+	private ObjectNode finishSignature(String token) {
+		String blobToken = signatures.remove(token);
+		byte[] content = blobToken != null ? blobs.get(blobToken) : null;
+		if (content == null) {
+			content = placeholderDocument;
+		}
+		ObjectNode response = mapper.createObjectNode();
+		response.set("signedFile", fileModel(storeBlob(content), content));
+		response.put("signedPdf", Base64.encodeBase64String(content));
+		response.put("cms", Base64.encodeBase64String(content));
+		response.put("signedXml", Base64.encodeBase64String(content));
+		response.set("certificate", certificateModel());
+		return response;
+	}
+
+	private ObjectNode openSignature() {
+		ObjectNode response = mapper.createObjectNode();
+		ArrayNode signers = response.putArray("signers");
+		ObjectNode signer = signers.addObject();
+		signer.set("certificate", certificateModel());
+		signer.put("signingTime", "2000-01-01T00:00:00Z");
+		ObjectNode validationResults = signer.putObject("validationResults");
+		validationResults.putArray("passedChecks");
+		validationResults.putArray("errors");
+		validationResults.putArray("warnings");
+		return response;
+	}
+
+	private ObjectNode getPositioningPreset(boolean newPage) {
+		ObjectNode preset = mapper.createObjectNode();
+		// Both presets refer to the last page (on the "new page" preset, a page added to the end)
+		preset.put("pageNumber", -1);
+		preset.put("measurementUnits", "Centimeters");
+		ObjectNode auto = preset.putObject("auto");
+		ObjectNode container = auto.putObject("container");
+		container.put("left", 2.54);
+		container.put("right", 2.54);
+		if (newPage) {
+			container.put("top", 2.54);
+			container.put("bottom", 2.54);
+		} else {
+			container.put("height", 4.94);
+			container.put("bottom", 2.54);
+		}
+		ObjectNode signatureRectangleSize = auto.putObject("signatureRectangleSize");
+		signatureRectangleSize.put("width", 7.0);
+		signatureRectangleSize.put("height", 4.94);
+		auto.put("rowSpacing", 0.0);
+		return preset;
+	}
+
+	private ObjectNode certificateModel() {
+		ObjectNode certificate = mapper.createObjectNode();
+		certificate.putObject("subjectName").put("commonName", "REST PKI Mock Signer");
+		certificate.putObject("issuerName").put("commonName", "REST PKI Mock CA");
+		certificate.put("emailAddress", "mock@localhost");
+		certificate.put("serialNumber", "01");
+		certificate.put("validityStart", "2000-01-01T00:00:00Z");
+		certificate.put("validityEnd", "2100-01-01T00:00:00Z");
+		certificate.putObject("pkiBrazil");
+		return certificate;
+	}
+
+	private ObjectNode fileModel(String blobToken, byte[] content) {
+		ObjectNode file = mapper.createObjectNode();
+		file.put("blobToken", blobToken);
+		file.put("url", "Api/Blobs/" + blobToken);
+		file.put("content", Base64.encodeBase64String(content));
+		return file;
+	}
+
+	private byte[] getReferencedContent(JsonNode request) {
+		String blobToken = findBlobToken(request);
+		byte[] content = blobToken != null ? blobs.get(blobToken) : null;
+		return content != null ? content : placeholderDocument;
+	}
+
+	// Returns the first blob token referenced by the request, if any.
+	private static String findBlobToken(JsonNode node) {
+		if (node == null) {
+			return null;
+		}
+		JsonNode blobToken = node.findValue("blobToken");
+		return (blobToken != null && blobToken.isTextual()) ? blobToken.asText() : null;
+	}
+
+	private String storeBlob(byte[] content) {
+		String blobToken = UUID.randomUUID().toString().replace("-", "");
+		blobs.put(blobToken, content);
+		return blobToken;
+	}
+
+	// Same format as the tokens of REST PKI: 43 characters, URL-safe.
+	private static String generateToken() {
+		byte[] bytes = new byte[32];
+		random.nextBytes(bytes);
+		return Base64.encodeBase64URLSafeString(bytes);
+	}
+
+	private static JsonNode readJson(byte[] content) {
+		try {
+			return content.length > 0 ? mapper.readTree(content) : null;
+		} catch (IOException e) {
+			// Not a JSON body (for instance, a binary upload).
+			return null;
+		}
+	}
+
+	private static void sendJson(HttpExchange exchange, JsonNode body) throws IOException {
+		send(exchange, 200, "application/json", mapper.writeValueAsBytes(body));
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String code, String message) throws IOException {
+		ObjectNode body = mapper.createObjectNode();
+		body.put("code", code);
+		body.put("message", message);
+		send(exchange, status, "application/json", mapper.writeValueAsBytes(body));
+	}
+
+	private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		// A length of -1 means no body at all (0 would mean a chunked body of unknown length).
+		exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+		OutputStream stream = exchange.getResponseBody();
+		stream.write(body);
+		stream.close();
+	}
+}
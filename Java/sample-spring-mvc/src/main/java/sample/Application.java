@@ -1,9 +1,23 @@
 package sample;
 
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.AbstractProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.embedded.ConfigurableEmbeddedServletContainer;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatConnectorCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.ConfigurableEnvironment;
+import sample.util.PadesVisualPositioningPresets;
+import sample.util.StaticAssets;
+import sample.util.StorageJanitor;
+import sample.util.VirtualThreads;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -12,6 +26,8 @@ import java.nio.file.Path;
 @SpringBootApplication
 public class Application {
 
+	private static final Logger logger = LoggerFactory.getLogger(Application.class);
+
 	private static Path tempFolderPath;
 	public static ConfigurableEnvironment environment;
 
@@ -28,5 +44,49 @@ public class Application {
 
 		ConfigurableApplicationContext ctx = SpringApplication.run(Application.class, args);
 		environment = ctx.getEnvironment();
+
+		// Load the static files used by the samples (PDF stamp, logos, icons, sample documents) into
+		// memory, so that they are not read from the classpath on every request.
+		StaticAssets.load();
+
+		// Fetch the PAdES positioning presets in the background, so that the first signature doesn't
+		// have to wait for them.
+		PadesVisualPositioningPresets.warmUp();
+
+		// Periodically delete old documents, so that the disk does not fill up (see StorageJanitor).
+		StorageJanitor.start();
+	}
+
+	/**
+	 * When the profile "virtual-threads" is active (see application-virtual-threads.properties),
+	 * Tomcat handles each request on a new virtual thread instead of on its pool of platform
+	 * threads. Since the samples spend most of each request blocked on calls to REST PKI, the
+	 * number of requests handled simultaneously is then no longer bounded by the size of the pool.
+	 * On JVMs without virtual threads (before Java 21), the profile has no effect on Tomcat.
+	 */
+	@Bean
+	@Profile("virtual-threads")
+	public EmbeddedServletContainerCustomizer virtualThreadsCustomizer() {
+		return new EmbeddedServletContainerCustomizer() {
+			@Override
+			public void customize(ConfigurableEmbeddedServletContainer container) {
+				if (!(container instanceof TomcatEmbeddedServletContainerFactory)) {
+					return;
+				}
+				if (!VirtualThreads.isSupported()) {
+					logger.warn("The profile virtual-threads is active, but the JVM does not support virtual threads (Java 21 or later is required)");
+					return;
+				}
+				((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(new TomcatConnectorCustomizer() {
+					@Override
+					public void customize(Connector connector) {
+						if (connector.getProtocolHandler() instanceof AbstractProtocol) {
+							((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(VirtualThreads.newThreadPerTaskExecutor("http-virtual-"));
+							logger.info("Requests are handled on virtual threads");
+						}
+					}
+				});
+			}
+		};
 	}
 }
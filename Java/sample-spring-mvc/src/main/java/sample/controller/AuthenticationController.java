@@ -7,6 +7,7 @@ import org.springframework.web.bind.annotation.*;
 import sample.util.*;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 
 @Controller
 public class AuthenticationController {
@@ -15,7 +16,7 @@ public class AuthenticationController {
 	 * This action initiates an authentication with REST PKI and renders the authentication page.
 	 */
 	@RequestMapping(value = "/authentication", method = {RequestMethod.GET})
-	public String get(Model model, HttpServletResponse response) throws RestException {
+	public String get(Model model, HttpServletResponse response) throws IOException, RestException {
 
 		// Get an instance of the Authentication class.
 		Authentication auth = new Authentication(Util.getRestPkiClient());
@@ -26,7 +27,12 @@ public class AuthenticationController {
 		// Web PKI component (see file signature-form.js) and also to call the completeWithWebPki()
 		// method on the post() method below (this should not be mistaken with the API access
 		// token). We have encapsulated the security context choice on Util.java.
-		String token = auth.startWithWebPki(Util.getSecurityContextId());
+		String token = RestPkiMetrics.time("authentication.start", new RestPkiMetrics.Call<String>() {
+			@Override
+			public String execute() throws IOException, RestException {
+				return auth.startWithWebPki(Util.getSecurityContextId());
+			}
+		});
 
 		// The token acquired above can only be used for a single authentication attempt. In order
 		// to retry the signature it is necessary to get a new token. This can be a problem if the
@@ -49,7 +55,7 @@ public class AuthenticationController {
 	public String post(
 			@RequestParam(value = "token") String token,
 			Model model
-	) throws RestException {
+	) throws IOException, RestException {
 
 		// Get an instance of the Authentication class.
 		Authentication auth = new Authentication(Util.getRestPkiClient());
@@ -58,7 +64,12 @@ public class AuthenticationController {
 		// see file templates/authentication.html). This method finalizes the authentication
 		// process, yielding a ValidationResults object which denotes whether the authentication
 		// was successful or not.
-		ValidationResults vr = auth.completeWithWebPki(token);
+		ValidationResults vr = RestPkiMetrics.time("authentication.complete", new RestPkiMetrics.Call<ValidationResults>() {
+			@Override
+			public ValidationResults execute() throws IOException, RestException {
+				return auth.completeWithWebPki(token);
+			}
+		});
 
 		// Check the authentication result.
 		if (!vr.isValid()) {
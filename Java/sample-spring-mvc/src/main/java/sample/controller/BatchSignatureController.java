@@ -1,30 +1,45 @@
 package sample.controller;
 
 import com.lacunasoftware.restpki.*;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 
-import sample.Application;
 import sample.util.PadesVisualElements;
 import sample.util.*;
 
 @Controller
 public class BatchSignatureController {
 
+	// Maximum number of documents accepted by the actions /batch-signature-start-many and
+	// /batch-signature-complete-many.
+	private static final int maxDocumentsPerRequest = 100;
+
+	// Time after which the action /batch-signature-complete-many responds with the signatures that
+	// are done so far, even if some of them are still being completed.
+	private static final long completeManyTimeoutMillis = 120 * 1000;
+
 	/**
 	 * This action renders the batch signature page.
 	 * <p>
 	 * Notice that the only thing we'll do on the server-side at this point is determine the IDs of
-	 * the documents to be signed. The page will handle each document one by one and will call the
-	 * server asynchronously to start and complete each signature.
+	 * the documents to be signed. The page will call the server asynchronously to start all
+	 * signatures at once and then to complete each signature.
 	 */
 	@RequestMapping(value = "/batch-signature", method = {RequestMethod.GET})
 	public String get(Model model) {
@@ -50,15 +65,66 @@ public class BatchSignatureController {
 			@RequestParam(value = "id") int id
 	) throws IOException, RestException {
 
+		// Return a JSON with the token obtained from REST PKI (the page will use jQuery to decode
+		// this value)
+		return "\"" + startSignature(id) + "\"";
+	}
+
+	/**
+	 * This action is called asynchronously from the batch signature page in order to initiate the
+	 * signatures of all documents in the batch with a single request.
+	 * <p>
+	 * The signatures are started concurrently on the server (see RestPkiExecutor), so the time
+	 * spent waiting for REST PKI overlaps instead of adding up. The response contains one entry
+	 * per document, in the same order as the given IDs, with either the token or the error that
+	 * prevented the signature from being started.
+	 */
+	@RequestMapping(value = "/batch-signature-start-many", method = {RequestMethod.POST}, produces = {MediaType.APPLICATION_JSON_VALUE})
+	public @ResponseBody List<BatchStartResult> startMany(
+			@RequestParam(value = "ids") List<Integer> ids
+	) throws InterruptedException {
+
+		if (ids.size() > maxDocumentsPerRequest) {
+			throw new IllegalArgumentException("Too many documents on a single request (maximum is " + maxDocumentsPerRequest + ")");
+		}
+
+		// Submit the start of each signature to the executor.
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+		for (final Integer id : ids) {
+			futures.add(RestPkiExecutor.get().submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return startSignature(id);
+				}
+			}));
+		}
+
+		// Wait for all signatures to be started and collect the results.
+		List<BatchStartResult> results = new ArrayList<BatchStartResult>();
+		for (int i = 0; i < ids.size(); i++) {
+			BatchStartResult result = new BatchStartResult(ids.get(i));
+			try {
+				result.setToken(futures.get(i).get());
+			} catch (ExecutionException e) {
+				result.setError(e.getCause().getMessage());
+			}
+			results.add(result);
+		}
+		return results;
+	}
+
+	private String startSignature(int id) throws IOException, RestException {
+
 		// Get an instance of the PadesSignatureStarter2 class, responsible for receiving the
 		// signature elements and start the signature process.
-		PadesSignatureStarter2 signatureStarter = new PadesSignatureStarter2(Util.getRestPkiClient());
+		final PadesSignatureStarter2 signatureStarter = new PadesSignatureStarter2(Util.getRestPkiClient());
 
 		// Set the unit of measurement used to edit the pdf marks and visual representations.
 		signatureStarter.setMeasurementUnits(PadesMeasurementUnits.Centimeters);
 
 		// Set the signature policy.
-		signatureStarter.setSignaturePolicy(SignaturePolicy.PadesBasic);
+		final SignaturePolicy signaturePolicy = SignaturePolicy.PadesBasic;
+		signatureStarter.setSignaturePolicy(signaturePolicy);
 
 		// Set the security context to be used to determine trust in the certificate chain. We have
 		// encapsulated the security context choice on Util.java.
@@ -67,9 +133,6 @@ public class BatchSignatureController {
 		// Create a visual representation for the signature.
 		signatureStarter.setVisualRepresentation(PadesVisualElements.getVisualRepresentation());
 
-		// Set the document to be signed based on its ID (passed to us from the page).
-		signatureStarter.setPdfToSign(Util.getBatchDocPath(id));
-
 		/*
 			Optionally, add marks to the PDF before signing. These differ from the signature visual
 			representation in that they are actually changes done to the document prior to signing,
@@ -94,11 +157,24 @@ public class BatchSignatureController {
 		// We'll use this value to call the signWithRestPki() method on the Web PKI component (see
 		// file signature-form.js) and also to complete the signature after the form is submitted
 		// (see method complete() below). This should not be mistaken with the API access token.
-		SignatureStartWithWebPkiResult result = signatureStarter.startWithWebPki();
+		//
+		// The document to be signed, determined by its ID (passed to us from the page), is set
+		// right before, so that the call can be retried with a new upload if REST PKI has
+		// discarded the uploaded file (see BlobCache.use()).
+		SignatureStartWithWebPkiResult result = BlobCache.use(Util.getBatchDocPath(id), new BlobCache.Operation<SignatureStartWithWebPkiResult>() {
+			@Override
+			public SignatureStartWithWebPkiResult execute(BlobReference pdf) throws IOException, RestException {
+				signatureStarter.setPdfToSign(pdf);
+				return RestPkiMetrics.time("pades.start", signaturePolicy, new RestPkiMetrics.Call<SignatureStartWithWebPkiResult>() {
+					@Override
+					public SignatureStartWithWebPkiResult execute() throws IOException, RestException {
+						return signatureStarter.startWithWebPki();
+					}
+				});
+			}
+		});
 
-		// Return a JSON with the token obtained from REST PKI (the page will use jQuery to decode
-		// this value)
-		return "\"" + result.getToken() + "\"";
+		return result.getToken();
 	}
 
 	/**
@@ -113,6 +189,109 @@ public class BatchSignatureController {
 			@RequestParam(value = "token") String token
 	) throws IOException, RestException {
 
+		// Return a JSON with the name of the signed file, which can be used to download it.
+		return "\"" + completeSignature(token) + "\"";
+	}
+
+	/**
+	 * Same as the action above, but sends the signed PDF itself as the response instead of the
+	 * name of the stored file ("direct delivery", see DirectDelivery). This saves the client a
+	 * second request to download the file. Select it by passing delivery=direct.
+	 */
+	@RequestMapping(value = "/batch-signature-complete", method = {RequestMethod.POST}, params = "delivery=direct")
+	public void completeDirect(
+			@RequestParam(value = "token") String token,
+			HttpServletResponse response
+	) throws IOException, RestException {
+
+		PadesSignatureFinisher2 signatureFinisher = new PadesSignatureFinisher2(Util.getRestPkiClient());
+		signatureFinisher.setToken(token);
+		SignatureResult signatureResult = RestPkiMetrics.time("pades.finish", new RestPkiMetrics.Call<SignatureResult>() {
+			@Override
+			public SignatureResult execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
+
+		// Stream the signed file to the response. It is stored in the background afterwards.
+		DirectDelivery.send(signatureResult, "pades.finish", ".pdf", "application/pdf", response);
+	}
+
+	/**
+	 * This action completes the signatures of many documents with a single request, given the
+	 * tokens of each signature.
+	 * <p>
+	 * The signatures are completed concurrently on the server (see RestPkiExecutor) and each signed
+	 * PDF is written to storage as soon as REST PKI returns it. The request thread is released
+	 * while the signatures are being completed (the response is written once all of them are
+	 * done), so a large batch does not hold one servlet thread per document. The response contains
+	 * one entry per token, in the same order as the given tokens, with either the name of the
+	 * signed file or the error that prevented the signature from being completed.
+	 * <p>
+	 * If the signatures take longer than completeManyTimeoutMillis, the response is written with
+	 * the signatures completed so far, and the remaining ones are reported as timed out (they are
+	 * still completed and stored on the server, but their names are not returned).
+	 */
+	@RequestMapping(value = "/batch-signature-complete-many", method = {RequestMethod.POST}, produces = {MediaType.APPLICATION_JSON_VALUE})
+	public @ResponseBody DeferredResult<List<BatchCompleteResult>> completeMany(
+			@RequestParam(value = "tokens") List<String> tokens
+	) {
+
+		if (tokens.size() > maxDocumentsPerRequest) {
+			throw new IllegalArgumentException("Too many documents on a single request (maximum is " + maxDocumentsPerRequest + ")");
+		}
+
+		// Start completing each signature on the executor. Each task records its own outcome, so
+		// a failure on one document doesn't affect the others.
+		final List<BatchCompleteResult> results = new ArrayList<BatchCompleteResult>();
+		List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		for (final String token : tokens) {
+			final BatchCompleteResult result = new BatchCompleteResult(token);
+			results.add(result);
+			futures.add(CompletableFuture.runAsync(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						result.setFilename(completeSignature(token));
+					} catch (Exception e) {
+						result.setError(e.getMessage());
+					}
+				}
+			}, RestPkiExecutor.get()));
+		}
+
+		// Write the response once all signatures are completed, or with the partial results if
+		// they take too long. Whichever comes first wins, the other call to setResult() is ignored.
+		final DeferredResult<List<BatchCompleteResult>> deferredResult = new DeferredResult<List<BatchCompleteResult>>(completeManyTimeoutMillis);
+		deferredResult.onTimeout(new Runnable() {
+			@Override
+			public void run() {
+				List<BatchCompleteResult> partialResults = new ArrayList<BatchCompleteResult>();
+				for (BatchCompleteResult result : results) {
+					partialResults.add(result.snapshot("Timed out while completing the signature"));
+				}
+				deferredResult.setResult(partialResults);
+			}
+		});
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).whenComplete(new BiConsumer<Void, Throwable>() {
+			@Override
+			public void accept(Void ignored, Throwable ex) {
+				deferredResult.setResult(results);
+			}
+		});
+		return deferredResult;
+	}
+
+	/*
+	 * Invalid batches (see the checks on the actions above) result in a "Bad Request" response.
+	 */
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public void handleInvalidBatch() {
+	}
+
+	private String completeSignature(String token) throws IOException, RestException {
+
 		// Get an instance of the PadesSignatureFinisher2 class, responsible for completing the
 		// signature process.
 		PadesSignatureFinisher2 signatureFinisher = new PadesSignatureFinisher2(Util.getRestPkiClient());
@@ -122,20 +301,113 @@ public class BatchSignatureController {
 
 		// Call the finish() method, which finalizes the signature process and returns a
 		// SignatureResult object.
-		SignatureResult signatureResult = signatureFinisher.finish();
+		SignatureResult signatureResult = RestPkiMetrics.time("pades.finish", new RestPkiMetrics.Call<SignatureResult>() {
+			@Override
+			public SignatureResult execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
 
 		// At this point, you'd typically store the signed PDF on your database. For demonstration
 		// purposes, we'll store the PDF on a temporary folder and return to the page an identifier
 		// that can be used to download it.
 
-		String filename = UUID.randomUUID() + ".pdf";
-
 		// The SignatureResult object has various methods for writing the signature file to a
 		// stream (writeTo()), local file (writeToFile()), open a stream to read the content
 		// (openRead()) and get its contents (getContent()). For large files, avoid the method
 		// getContent() to avoid memory allocation issues.
-		signatureResult.writeToFile(Application.getTempFolderPath().resolve(filename));
+		String filename = Util.getDocumentStore().store(new DocumentStore.ContentWriter() {
+			@Override
+			public void write(Path target) throws Exception {
+				signatureResult.writeToFile(target);
+			}
+		}, ".pdf");
+		RestPkiMetrics.recordPayloadSize("pades.finish", "download", Util.getDocumentStore().getInfo(filename).getSize());
+
+		return filename;
+	}
+
+	/**
+	 * Result of the start of a single document's signature on the action
+	 * /batch-signature-start-many (serialized to JSON).
+	 */
+	public static class BatchStartResult {
+
+		private int id;
+		private String token;
+		private String error;
+
+		public BatchStartResult(int id) {
+			this.id = id;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public String getToken() {
+			return token;
+		}
+
+		public void setToken(String token) {
+			this.token = token;
+		}
+
+		public String getError() {
+			return error;
+		}
 
-		return "\"" + filename + "\"";
+		public void setError(String error) {
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Result of the completion of a single document's signature on the action
+	 * /batch-signature-complete-many (serialized to JSON).
+	 */
+	public static class BatchCompleteResult {
+
+		private String token;
+		private volatile String filename;
+		private volatile String error;
+
+		public BatchCompleteResult(String token) {
+			this.token = token;
+		}
+
+		/**
+		 * Returns a copy of this result as it is now. If the signature is still being completed,
+		 * the copy carries the given error instead.
+		 */
+		BatchCompleteResult snapshot(String pendingError) {
+			BatchCompleteResult copy = new BatchCompleteResult(token);
+			copy.filename = filename;
+			copy.error = error;
+			if (copy.filename == null && copy.error == null) {
+				copy.error = pendingError;
+			}
+			return copy;
+		}
+
+		public String getToken() {
+			return token;
+		}
+
+		public String getFilename() {
+			return filename;
+		}
+
+		public void setFilename(String filename) {
+			this.filename = filename;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		public void setError(String error) {
+			this.error = error;
+		}
 	}
 }
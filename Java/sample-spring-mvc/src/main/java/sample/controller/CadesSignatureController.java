@@ -6,12 +6,15 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import sample.Application;
+import sample.util.BlobCache;
+import sample.util.DocumentStore;
+import sample.util.DirectDelivery;
+import sample.util.RestPkiMetrics;
 import sample.util.Util;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.UUID;
+import java.nio.file.Path;
 
 @Controller
 public class CadesSignatureController {
@@ -38,7 +41,8 @@ public class CadesSignatureController {
 		CadesSignatureStarter2 signatureStarter = new CadesSignatureStarter2(Util.getRestPkiClient());
 
 		// Set the signature policy.
-		signatureStarter.setSignaturePolicy(SignaturePolicy.PkiBrazilAdrBasica);
+		final SignaturePolicy signaturePolicy = SignaturePolicy.PkiBrazilAdrBasica;
+		signatureStarter.setSignaturePolicy(signaturePolicy);
 
 		// Set the security context to be used to determine trust in the certificate chain. We have
 		// encapsulated the security context choice on Util.java.
@@ -51,16 +55,20 @@ public class CadesSignatureController {
 		// 	the CmsToCoSign also includes the content.
 		signatureStarter.setEncapsulateContent(true);
 
-		// Below we'll either set the file to be signed or the CMS to be co-signed. Prefer passing
-		// a path or a stream instead of the file's contents as a byte array to prevent memory
-		// allocation issues with large files.
+		// Below we'll determine either the file to be signed or the CMS to be co-signed. The files
+		// are passed through BlobCache (see the call to startWithWebPki() below), which uploads each content to
+		// REST PKI only once and reuses the uploaded blob on subsequent operations on the same
+		// content (for instance, a co-signature of a CMS that was just validated).
+		final Path filePath;
+		final boolean coSign;
 		if (userfile != null && !userfile.isEmpty()) {
 
 			// If the URL argument "userfile" is filled, it means the user was redirected here by
 			// UploadController (signature with file uploaded by user). We'll set the path of the file
 			// to be signed, which was saved in the temporary folder by UploadController (such a file
 			// would normally come from your application's database).
-			signatureStarter.setFileToSign(Application.getTempFolderPath().resolve(userfile));
+			filePath = Util.getDocumentStore().getPath(userfile);
+			coSign = false;
 
 		} else if (cmsfile != null && !cmsfile.isEmpty()) {
 
@@ -76,13 +84,15 @@ public class CadesSignatureController {
 			//   2. Since we're creating CMSs with encapsulated content (see call to
 			//      setEncapsulateContent() below), we don't need to set the content to be signed,
 			//      REST PKI will get the content from the CMS being co-signed.
-			signatureStarter.setCmsToCoSign(Application.getTempFolderPath().resolve(cmsfile));
+			filePath = Util.getDocumentStore().getPath(cmsfile);
+			coSign = true;
 
 		} else {
 
 			// If both userfile and cmsfile are null, this is the "signature with server file" case.
 			// We'll set the path of the file to be signed.
-			signatureStarter.setFileToSign(Util.getSampleDocPath());
+			filePath = Util.getSampleDocPath();
+			coSign = false;
 
 		}
 
@@ -92,8 +102,24 @@ public class CadesSignatureController {
 		// We'll use this value to call the signWithRestPki() method on the Web PKI component
 		// (see file signature-form.js) and also to complete the signature after the form is
 		// submitted (see method complete() below). This should not be mistaken with the API access
-		// token.
-		SignatureStartWithWebPkiResult result = signatureStarter.startWithWebPki();
+		// token. The file is set right before, so that the call can be retried with a new upload if
+		// REST PKI has discarded the uploaded file (see BlobCache.use()).
+		SignatureStartWithWebPkiResult result = BlobCache.use(filePath, new BlobCache.Operation<SignatureStartWithWebPkiResult>() {
+			@Override
+			public SignatureStartWithWebPkiResult execute(BlobReference file) throws IOException, RestException {
+				if (coSign) {
+					signatureStarter.setCmsToCoSign(file);
+				} else {
+					signatureStarter.setFileToSign(file);
+				}
+				return RestPkiMetrics.time("cades.start", signaturePolicy, new RestPkiMetrics.Call<SignatureStartWithWebPkiResult>() {
+					@Override
+					public SignatureStartWithWebPkiResult execute() throws IOException, RestException {
+						return signatureStarter.startWithWebPki();
+					}
+				});
+			}
+		});
 
 		// The token acquired above can only be used for a single signature attempt. In order to
 		// retry the signature it is necessary to get a new token. This can be a problem if the user
@@ -129,7 +155,12 @@ public class CadesSignatureController {
 
 		// Call the finish() method, which finalizes the signature process and returns a
 		// SignatureResult object.
-		SignatureResult signatureResult = signatureFinisher.finish();
+		SignatureResult signatureResult = RestPkiMetrics.time("cades.finish", new RestPkiMetrics.Call<SignatureResult>() {
+			@Override
+			public SignatureResult execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
 
 		// The "certificate" field of the SignatureResult object contains information about the
 		// certificate used by the user to sign the file.
@@ -139,17 +170,47 @@ public class CadesSignatureController {
 		// we'll store the CMS on a temporary folder and return to the page an identifier that can be
 		// used to download it.
 
-		String filename = UUID.randomUUID() + ".p7s";
-
 		// The SignatureResult object has various methods for writing the signature file to a stream
 		// (writeTo()), local file (writeToFile()), open a stream to read the content (openRead())
 		// and get its contents (getContent()). For large files, avoid the method GetContent() to
 		// avoid memory allocation issues.
-		signatureResult.writeToFile(Application.getTempFolderPath().resolve(filename));
+		String filename = Util.getDocumentStore().store(new DocumentStore.ContentWriter() {
+			@Override
+			public void write(Path target) throws Exception {
+				signatureResult.writeToFile(target);
+			}
+		}, ".p7s");
+		RestPkiMetrics.recordPayloadSize("cades.finish", "download", Util.getDocumentStore().getInfo(filename).getSize());
 
 		// Render the signature page (templates/cades-signature-info.html).
 		model.addAttribute("signerCert", signerCert);
 		model.addAttribute("filename", filename);
 		return "cades-signature-info";
 	}
+
+	/**
+	 * Same as the action above, but sends the signed CMS itself as the response instead of
+	 * rendering a page with a link to download it ("direct delivery", see DirectDelivery). This
+	 * saves the client a second request, and the server a second read of the document, when the
+	 * signed file is all the client needs. Select it by submitting the form with delivery=direct.
+	 */
+	@RequestMapping(value = "/cades-signature", method = {RequestMethod.POST}, params = "delivery=direct")
+	public void postDirect(
+			@RequestParam(value = "token") String token,
+			HttpServletResponse response
+	) throws IOException, RestException {
+
+		// Complete the signature as above.
+		CadesSignatureFinisher2 signatureFinisher = new CadesSignatureFinisher2(Util.getRestPkiClient());
+		signatureFinisher.setToken(token);
+		SignatureResult signatureResult = RestPkiMetrics.time("cades.finish", new RestPkiMetrics.Call<SignatureResult>() {
+			@Override
+			public SignatureResult execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
+
+		// Stream the signed file to the response. It is stored in the background afterwards.
+		DirectDelivery.send(signatureResult, "cades.finish", ".p7s", "application/pkcs7-signature", response);
+	}
 }
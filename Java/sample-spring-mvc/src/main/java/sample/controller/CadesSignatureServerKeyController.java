@@ -6,16 +6,18 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import sample.Application;
+import sample.util.BlobCache;
+import sample.util.DocumentStore;
+import sample.util.RestPkiMetrics;
+import sample.util.ServerKeySigner;
 import sample.util.Util;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
-import java.security.Signature;
 import java.security.cert.Certificate;
-import java.util.UUID;
 
 @Controller
 public class CadesSignatureServerKeyController {
@@ -45,7 +47,8 @@ public class CadesSignatureServerKeyController {
 		signatureStarter.setSignerCertificateRaw(certificate.getEncoded());
 
 		// Set the signature policy.
-		signatureStarter.setSignaturePolicy(SignaturePolicy.PkiBrazilAdrBasica);
+		final SignaturePolicy signaturePolicy = SignaturePolicy.PkiBrazilAdrBasica;
+		signatureStarter.setSignaturePolicy(signaturePolicy);
 
 		// Set the security context to be used to determine trust in the certificate chain.
 		signatureStarter.setSecurityContext(SecurityContext.lacunaTest);
@@ -57,16 +60,20 @@ public class CadesSignatureServerKeyController {
 		//   the CmsToCoSign also includes the content.
 		signatureStarter.setEncapsulateContent(true);
 
-		// Below we'll either set the file to be signed or the CMS to be co-signed. Prefer passing
-		// a path or a stream instead of the file's contents as a byte array to prevent memory
-		// allocation issues with large files.
+		// Below we'll determine either the file to be signed or the CMS to be co-signed. The files
+		// are passed through BlobCache (see the call to start() below), which uploads each content to
+		// REST PKI only once and reuses the uploaded blob on subsequent operations on the same
+		// content (for instance, a co-signature of a CMS that was just validated).
+		final Path filePath;
+		final boolean coSign;
 		if (userfile != null && !userfile.isEmpty()) {
 
 			// If the URL argument "userfile" is filled, it means the user was redirected here by
 			// UploadController (signature with file uploaded by user). We'll set the path of the file
 			// to be signed, which was saved in the temporary folder by UploadController (such a file
 			// would normally come from your application's database).
-			signatureStarter.setFileToSign(Application.getTempFolderPath().resolve(userfile));
+			filePath = Util.getDocumentStore().getPath(userfile);
+			coSign = false;
 
 		} else if (cmsfile != null && !cmsfile.isEmpty()) {
 
@@ -81,18 +88,38 @@ public class CadesSignatureServerKeyController {
 			//   2. Since we're creating CMSs with encapsulated content (see call to
 			//      setEncapsulateContent() below), we don't need to set the content to be signed,
 			//      REST PKI will get the content from the CMS being co-signed.
-			signatureStarter.setCmsToCoSign(Application.getTempFolderPath().resolve(cmsfile));
+			filePath = Util.getDocumentStore().getPath(cmsfile);
+			coSign = true;
 
 		} else {
 
 			// If both userfile and cmsfile are null, this is the "signature with server file" case.
 			// We'll set the path of the file to be signed.
-			signatureStarter.setFileToSign(Util.getSampleDocPath());
+			filePath = Util.getSampleDocPath();
+			coSign = false;
 
 		}
+
 		// Call the start() method, which initiates the signature. This yields the parameters for the
-		// signature using the certificate.
-		SignatureStartResult result = signatureStarter.start();
+		// signature using the certificate. The file is set right before, so that the call can be
+		// retried with a new upload if REST PKI has discarded the uploaded file (see
+		// BlobCache.use()).
+		SignatureStartResult result = BlobCache.use(filePath, new BlobCache.Operation<SignatureStartResult>() {
+			@Override
+			public SignatureStartResult execute(BlobReference file) throws IOException, RestException {
+				if (coSign) {
+					signatureStarter.setCmsToCoSign(file);
+				} else {
+					signatureStarter.setFileToSign(file);
+				}
+				return RestPkiMetrics.time("cades.start", signaturePolicy, new RestPkiMetrics.Call<SignatureStartResult>() {
+					@Override
+					public SignatureStartResult execute() throws IOException, RestException {
+						return signatureStarter.start();
+					}
+				});
+			}
+		});
 
 		// Get the key form a PKCS#12 file.
 		PrivateKey pkey = (PrivateKey) Util.getSampleKeyFromPKCS12();
@@ -100,14 +127,10 @@ public class CadesSignatureServerKeyController {
 		// Alternative option: Get the key form Microsoft CryptoAPI.
 		//PrivateKey pkey = (PrivateKey) Util.getSampleKeyFromMSCAPI();
 
-		// Initialize the signature using the parameters returned by Rest PKI with the signer's key.
-		Signature signature = Signature.getInstance(result.getSignatureAlgorithm());
-		signature.initSign(pkey);
-		// Set the toSignData, provided by Rest PKI.
-		byte[] toSignData = result.getToSignDataRaw();
-		signature.update(toSignData, 0, toSignData.length);
-		// Perform the signature.
-		byte[] sig = signature.sign();
+		// Perform the signature of the toSignData, provided by Rest PKI, with the signature
+		// algorithm also provided by Rest PKI and the signer's key. The ServerKeySigner class reuses
+		// initialized java.security.Signature instances between calls.
+		byte[] sig = ServerKeySigner.sign(result.getSignatureAlgorithm(), pkey, result.getToSignDataRaw());
 
 		// Instantiate the CadesSignatureFinisher2 class, responsible for completing the signature
 		// process.
@@ -121,7 +144,12 @@ public class CadesSignatureServerKeyController {
 
 		// Call the finish() method, which finalizes the signature process and returns a
 		// SignatureResult object.
-		SignatureResult signatureResult = signatureFinisher.finish();
+		SignatureResult signatureResult = RestPkiMetrics.time("cades.finish", new RestPkiMetrics.Call<SignatureResult>() {
+			@Override
+			public SignatureResult execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
 
 		// The "certificate" field of the SignatureResult object contains information about the
 		// certificate used by the user to sign the file.
@@ -131,13 +159,16 @@ public class CadesSignatureServerKeyController {
 		// we'll store the CMS on a temporary folder and return to the page an identifier that can be
 		// used to download it.
 
-		String filename = UUID.randomUUID() + ".p7s";
-
 		// The SignatureResult object has various methods for writing the signature file to a stream
 		// (writeTo()), local file (writeToFile()), open a stream to read the content (openRead())
 		// and get its contents (getContent()). For large files, avoid the method GetContent() to
 		// avoid memory allocation issues.
-		signatureResult.writeToFile(Application.getTempFolderPath().resolve(filename));
+		String filename = Util.getDocumentStore().store(new DocumentStore.ContentWriter() {
+			@Override
+			public void write(Path target) throws Exception {
+				signatureResult.writeToFile(target);
+			}
+		}, ".p7s");
 
 		// Render the signature page (templates/cades-signature-info.html).
 		model.addAttribute("signerCert", signerCert);
@@ -1,34 +1,83 @@
 package sample.controller;
 
 import com.lacunasoftware.restpki.*;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
-import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import sample.Application;
-import sample.util.StorageMock;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.ModelAndView;
+import sample.util.BlobCache;
+import sample.util.RestPkiMetrics;
+import sample.util.TokenBucketLimiter;
 import sample.util.Util;
+import sample.util.ValidationCache;
 
-import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 @Controller
 public class CheckController {
 
+	// #############################################################################################
+	// Configuration of the protection against brute-force attacks
+	// #############################################################################################
+
+	// Minimum time before responding to a request, whether the verification code is valid or not.
+	private static final long responseDelayMillis = 2000;
+
+	// Number of verification codes a single IP address may submit in a burst.
+	private static final int maxAttempts = 10;
+
+	// Rate at which an IP address regains attempts after exhausting them.
+	private static final int attemptsPerMinute = 6;
+	// #############################################################################################
+
+	private static final TokenBucketLimiter attemptsLimiter = new TokenBucketLimiter(maxAttempts, attemptsPerMinute);
+
+	// Scheduler used to delay the responses without holding a request thread.
+	private static final ScheduledExecutorService delayScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "check-delay");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
 	/**
 	 * This action checks a PAdES signature, identified by its signature code provided by
 	 * printer-friendly version generation sample.
+	 * <p>
+	 * The response is returned as a DeferredResult, which allows us to delay the response without
+	 * keeping a request thread blocked during the delay. Every response is delayed until at least
+	 * responseDelayMillis after the request arrived, so the response time doesn't tell a valid
+	 * code from an invalid one.
 	 */
 	@RequestMapping(value = "/check", method = {RequestMethod.GET})
-	public String get(
+	public DeferredResult<ModelAndView> get(
 			@RequestParam(value = "c") String code,
-			Model model,
-			HttpSession session,
-			HttpServletResponse response
-	) throws IOException, RestException, InterruptedException {
+			HttpServletRequest request
+	) throws IOException, RestException {
+
+		final long startTime = System.currentTimeMillis();
+		final DeferredResult<ModelAndView> result = new DeferredResult<ModelAndView>();
+
+		// Count the attempt against the client's address before looking up the code, and refuse
+		// requests from addresses that have recently submitted too many codes. Checking and
+		// consuming in a single step ensures concurrent requests can't exceed the limit.
+		String clientAddress = request.getRemoteAddr();
+		if (!attemptsLimiter.tryConsume(clientAddress)) {
+			result.setErrorResult(new TooManyAttemptsException());
+			return result;
+		}
 
 		// On PrinterFriendlyVersionController, we stored the unformatted version of the verification
 		// code (without hyphens) but used the formatted version (with hyphens) on the
@@ -36,43 +85,91 @@ public class CheckController {
 		String verificationCode = AlphaCode.parse(code);
 
 		// Get document associated with verification code
-		String fileId = StorageMock.lookupVerificationCode(session, verificationCode);
-		if (fileId == null) {
-			// Invalid code given!
-			// Small delay to slow down brute-force attacks (if you want to be extra careful you might
-			// want to add a CAPTCHA to the process).
-			Thread.sleep(2000);
-			// Return Not Found
-			response.setStatus(404);
-			return null;
+		String fileId = Util.getVerificationCodeStore().lookupVerificationCode(verificationCode);
+		if (fileId == null || !Util.getDocumentStore().exists(fileId)) {
+			// Invalid code given, or the document was already deleted after its retention period
+			// (see StorageJanitor)! The delay slows down brute-force attacks (if you want to be extra
+			// careful you might want to add a CAPTCHA to the process).
+			respondDelayed(result, startTime, null);
+			return result;
 		}
 
-		// Read document from storage.
-		byte[] fileContent = Files.readAllBytes(Application.getTempFolderPath().resolve(fileId));
+		// Signed files never change, so the validation result is kept on a cache keyed by the
+		// document's ID (which identifies its content), the signature policy and the security
+		// context (see ValidationCache). REST PKI is only called if the result is not on the cache.
+		final Path filePath = Util.getDocumentStore().getPath(fileId);
+		final SecurityContext securityContext = Util.getSecurityContextId();
+		final SignaturePolicy signaturePolicy = SignaturePolicy.PadesBasic;
+		PadesSignature signature = ValidationCache.getPadesSignature(fileId, filePath, signaturePolicy, securityContext, new ValidationCache.Validator<PadesSignature>() {
+			@Override
+			public PadesSignature validate() throws IOException, RestException {
 
-		// Get an instance the PadesSignatureExplorer2 class, used to open/validate PDF signatures.
-		PadesSignatureExplorer2 sigExplorer = new PadesSignatureExplorer2(Util.getRestPkiClient());
+				// Get an instance the PadesSignatureExplorer2 class, used to open/validate PDF signatures.
+				final PadesSignatureExplorer2 sigExplorer = new PadesSignatureExplorer2(Util.getRestPkiClient());
 
-		// Specify that we want to validate the signatures in the file, not only inspect them.
-		sigExplorer.setValidate(true);
+				// Specify that we want to validate the signatures in the file, not only inspect them.
+				sigExplorer.setValidate(true);
 
-		// Set the PDF file.
-		sigExplorer.setSignatureFile(fileContent);
+				// Specify the parameters for the signature validation:
+				// Accept any PAdES signature as long as the signer has an ICP-Brasil certificate.
+				sigExplorer.setDefaultSignaturePolicy(signaturePolicy);
+				// Specify the security context to be used to determine trust in the certificate chain. We
+				// have encapsulated the security context on Util.java.
+				sigExplorer.setSecurityContext(securityContext);
 
-		// Specify the parameters for the signature validation:
-		// Accept any PAdES signature as long as the signer has an ICP-Brasil certificate.
-		sigExplorer.setDefaultSignaturePolicy(SignaturePolicy.PadesBasic);
-		// Specify the security context to be used to determine trust in the certificate chain. We
-		// have encapsulated the security context on Util.java.
-		sigExplorer.setSecurityContext(Util.getSecurityContextId());
-
-		// Call the open() method, which returns the signature file's information.
-		PadesSignature signature = sigExplorer.open();
+				// Set the PDF file and call the open() method, which returns the signature file's
+				// information. If REST PKI has discarded the uploaded file, it is uploaded again and the
+				// call is retried (see BlobCache.use()).
+				return BlobCache.use(filePath, new BlobCache.Operation<PadesSignature>() {
+					@Override
+					public PadesSignature execute(BlobReference file) throws IOException, RestException {
+						sigExplorer.setSignatureFile(file);
+						return RestPkiMetrics.time("pades.open", signaturePolicy, new RestPkiMetrics.Call<PadesSignature>() {
+							@Override
+							public PadesSignature execute() throws IOException, RestException {
+								return sigExplorer.open();
+							}
+						});
+					}
+				});
+			}
+		});
 
 		// Render the information (see file resources/templates/check.html for more information on
 		// the information returned).
-		model.addAttribute("fileId", fileId);
-		model.addAttribute("signature", signature);
-		return "check";
+		ModelAndView modelAndView = new ModelAndView("check");
+		modelAndView.addObject("fileId", fileId);
+		modelAndView.addObject("signature", signature);
+		respondDelayed(result, startTime, modelAndView);
+		return result;
+	}
+
+	/**
+	 * Completes the given result with the given view, or with a "Not Found" response if the view
+	 * is null, once responseDelayMillis have elapsed since the given start time. The result is
+	 * completed by the scheduler, the request thread is released right away.
+	 */
+	private static void respondDelayed(final DeferredResult<ModelAndView> result, long startTime, final ModelAndView modelAndView) {
+		long delay = Math.max(0, startTime + responseDelayMillis - System.currentTimeMillis());
+		delayScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (modelAndView != null) {
+					result.setResult(modelAndView);
+				} else {
+					result.setErrorResult(new InvalidCodeException());
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	// Results in a "Not Found" response.
+	@ResponseStatus(HttpStatus.NOT_FOUND)
+	private static class InvalidCodeException extends RuntimeException {
+	}
+
+	// Results in a "Too Many Requests" response.
+	@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+	private static class TooManyAttemptsException extends RuntimeException {
 	}
 }
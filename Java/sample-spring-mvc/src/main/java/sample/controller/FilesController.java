@@ -3,23 +3,178 @@ package sample.controller;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
-import sample.Application;
+import sample.util.DocumentStore;
+import sample.util.Util;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 @Controller
 public class FilesController {
 
+	/**
+	 * This action serves the files stored by the samples (uploaded files and signed documents).
+	 * <p>
+	 * The files are never changed once written, so the response carries an ETag that allows
+	 * browsers to revalidate a cached copy (answered with "304 Not Modified") and supports HTTP
+	 * Range requests, allowing interrupted downloads to be resumed. The content is streamed
+	 * directly from the file to the connection, without being loaded into memory.
+	 */
 	@RequestMapping("/files/{filename:.+}")
-	public void get(HttpServletResponse httpResponse, @PathVariable("filename") String filename) throws IOException {
-		byte[] content = Files.readAllBytes(Application.getTempFolderPath().resolve(filename));
+	public void get(HttpServletRequest request, HttpServletResponse httpResponse, @PathVariable("filename") String filename) throws IOException {
+
+		// Only IDs of stored documents are accepted, so no path outside the store can be reached.
+		DocumentStore documentStore = Util.getDocumentStore();
+		if (!documentStore.exists(filename)) {
+			// Return "Not Found" code.
+			httpResponse.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		Path path = documentStore.getPath(filename);
+
+		// The document ID is derived from the hash of the content, so it identifies the content.
+		long length = Files.size(path);
+		String etag = String.format("\"%s\"", filename);
+
+		httpResponse.setHeader("ETag", etag);
+		httpResponse.setHeader("Accept-Ranges", "bytes");
 		httpResponse.setHeader("Content-Disposition", String.format("attachment; filename=%s", filename));
-		OutputStream outStream = httpResponse.getOutputStream();
-		org.apache.commons.io.IOUtils.write(content, outStream);
-		outStream.close();
+
+		// If the client already has this version of the file, there's nothing to send.
+		if (matchesEtag(request.getHeader("If-None-Match"), etag)) {
+			httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		// Determine which part of the file should be sent. The Range header is ignored if it is not
+		// valid, if the client's copy is outdated (If-Range) or if more than one range is
+		// requested, in which case the whole file is sent. Only a valid range that starts past the
+		// end of the file is answered with "416 Range Not Satisfiable".
+		long start = 0;
+		long end = length - 1;
+		String range = request.getHeader("Range");
+		String ifRange = request.getHeader("If-Range");
+		long[] bounds = null;
+		if (range != null && range.startsWith("bytes=") && !range.contains(",") && (ifRange == null || ifRange.equals(etag))) {
+			bounds = parseRange(range.substring("bytes=".length()).trim(), length);
+		}
+		if (bounds != null) {
+			if (bounds[0] >= length) {
+				httpResponse.setHeader("Content-Range", String.format("bytes */%d", length));
+				httpResponse.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			start = bounds[0];
+			end = bounds[1];
+			httpResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			httpResponse.setHeader("Content-Range", String.format("bytes %d-%d/%d", start, end, length));
+		}
+		long count = end - start + 1;
+		httpResponse.setHeader("Content-Length", Long.toString(count));
+
+		if (Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+			// Tomcat can send the file with the operating system's sendfile, without copying it
+			// through the JVM at all.
+			request.setAttribute("org.apache.tomcat.sendfile.filename", path.toAbsolutePath().toString());
+			request.setAttribute("org.apache.tomcat.sendfile.start", start);
+			request.setAttribute("org.apache.tomcat.sendfile.end", end + 1);
+			return;
+		}
+
+		FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			OutputStream outStream = httpResponse.getOutputStream();
+			WritableByteChannel outChannel = Channels.newChannel(outStream);
+			long position = start;
+			while (position <= end) {
+				long transferred = fileChannel.transferTo(position, end + 1 - position, outChannel);
+				if (transferred <= 0) {
+					// The file is shorter than expected, stop instead of spinning on it.
+					throw new IOException(String.format("Unexpected end of file %s at position %d", filename, position));
+				}
+				position += transferred;
+			}
+			outStream.close();
+		} finally {
+			fileChannel.close();
+		}
+	}
+
+	private static boolean matchesEtag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals("*") || candidate.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parses a single byte range ("first-last", "first-" or "-suffixLength"), returning the first and
+	 * last positions (inclusive), or null if the range is not valid and must be ignored. The first
+	 * position returned is not less than the file length if the range cannot be satisfied.
+	 */
+	private static long[] parseRange(String spec, long length) {
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		String first = spec.substring(0, dash).trim();
+		String last = spec.substring(dash + 1).trim();
+		if (!isDigits(last) && !(last.isEmpty() && isDigits(first))) {
+			return null;
+		}
+		if (!first.isEmpty() && !isDigits(first)) {
+			return null;
+		}
+		try {
+			long start, end;
+			if (first.isEmpty()) {
+				// Suffix range: the last N bytes of the file (none at all if N is zero).
+				long suffixLength = Long.parseLong(last);
+				start = suffixLength > 0 ? Math.max(0, length - suffixLength) : length;
+				end = length - 1;
+			} else {
+				start = Long.parseLong(first);
+				if (last.isEmpty()) {
+					end = length - 1;
+				} else {
+					end = Long.parseLong(last);
+					if (end < start) {
+						return null;
+					}
+					end = Math.min(end, length - 1);
+				}
+			}
+			return new long[]{start, end};
+		} catch (NumberFormatException e) {
+			// Too many digits.
+			return null;
+		}
+	}
+
+	private static boolean isDigits(String s) {
+		if (s.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
 	}
 
 }
@@ -6,11 +6,14 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import sample.Application;
+import sample.util.BlobCache;
+import sample.util.RestPkiMetrics;
 import sample.util.Util;
+import sample.util.ValidationCache;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.file.Path;
 
 @Controller
 public class OpenCadesSignatureController {
@@ -24,29 +27,51 @@ public class OpenCadesSignatureController {
 			Model model
 	) throws IOException, RestException {
 
-		// Get an instance of the CadesSignatureExplorer2 class, used to open/validate CAdES
-		// signatures.
-		CadesSignatureExplorer2 sigExplorer = new CadesSignatureExplorer2(Util.getRestPkiClient());
+		// Signed files never change, so the validation result is kept on a cache keyed by the
+		// document's ID (which identifies its content), the signature policy and the security
+		// context (see ValidationCache). REST PKI is only called if the result is not on the cache.
+		final Path filePath = Util.getDocumentStore().getPath(userfile);
+		final SecurityContext securityContext = Util.getSecurityContextId();
+		final SignaturePolicy signaturePolicy = SignaturePolicy.CadesBes;
+		CadesSignature signature = ValidationCache.getCadesSignature(userfile, filePath, signaturePolicy, securityContext, new ValidationCache.Validator<CadesSignature>() {
+			@Override
+			public CadesSignature validate() throws IOException, RestException {
 
-		// Specify that we want to validate the signatures in the file, not only inspect them.
-		sigExplorer.setValidate(true);
+				// Get an instance of the CadesSignatureExplorer2 class, used to open/validate CAdES
+				// signatures.
+				final CadesSignatureExplorer2 sigExplorer = new CadesSignatureExplorer2(Util.getRestPkiClient());
 
-		// Specify the parameters for the signature validation:
-		// Accept any CAdES signature as long as the signer has an ICP-Brasil
-		sigExplorer.setDefaultSignaturePolicy(SignaturePolicy.CadesBes);
-		// We have encapsulated the security context choice on Util.java.
-		sigExplorer.setSecurityContext(Util.getSecurityContextId());
+				// Specify that we want to validate the signatures in the file, not only inspect them.
+				sigExplorer.setValidate(true);
 
-		// Alternatively, you may require full compliance with ICP-Brasil by doing:
-		//sigExplorer.setAcceptableExplicitPolicies(SignaturePolicyCatalog.getPkiBrazilCades());
-		//sigExplorer.setDefaultSignaturePolicy(null);
-		//sigExplorer.setSecurityContext(null);
+				// Specify the parameters for the signature validation:
+				// Accept any CAdES signature as long as the signer has an ICP-Brasil
+				sigExplorer.setDefaultSignaturePolicy(signaturePolicy);
+				// We have encapsulated the security context choice on Util.java.
+				sigExplorer.setSecurityContext(securityContext);
 
-		// Set the CAdES signature file.
-		sigExplorer.setSignatureFile(Application.getTempFolderPath().resolve(userfile));
+				// Alternatively, you may require full compliance with ICP-Brasil by doing:
+				//sigExplorer.setAcceptableExplicitPolicies(SignaturePolicyCatalog.getPkiBrazilCades());
+				//sigExplorer.setDefaultSignaturePolicy(null);
+				//sigExplorer.setSecurityContext(null);
 
-		// Call the open() method, which returns the signature file's information.
-		CadesSignature signature = sigExplorer.open();
+				// Set the CAdES signature file and call the open() method, which returns the signature file's
+				// information. If REST PKI has discarded the uploaded file, it is uploaded again and the
+				// call is retried (see BlobCache.use()).
+				return BlobCache.use(filePath, new BlobCache.Operation<CadesSignature>() {
+					@Override
+					public CadesSignature execute(BlobReference file) throws IOException, RestException {
+						sigExplorer.setSignatureFile(file);
+						return RestPkiMetrics.time("cades.open", signaturePolicy, new RestPkiMetrics.Call<CadesSignature>() {
+							@Override
+							public CadesSignature execute() throws IOException, RestException {
+								return sigExplorer.open();
+							}
+						});
+					}
+				});
+			}
+		});
 
 		// Render the information (see file resources/templates/open-cades-signature.html for more
 		// information on the information returned).
@@ -6,11 +6,14 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import sample.Application;
+import sample.util.BlobCache;
+import sample.util.RestPkiMetrics;
 import sample.util.Util;
+import sample.util.ValidationCache;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.file.Path;
 
 @Controller
 public class OpenPadesSignatureController {
@@ -24,24 +27,46 @@ public class OpenPadesSignatureController {
 		Model model
 	) throws IOException, RestException {
 
-		// Get an instance the PadesSignatureExplorer2 class, used to open/validate PDF signatures.
-		PadesSignatureExplorer2 sigExplorer = new PadesSignatureExplorer2(Util.getRestPkiClient());
+		// Signed files never change, so the validation result is kept on a cache keyed by the
+		// document's ID (which identifies its content), the signature policy and the security
+		// context (see ValidationCache). REST PKI is only called if the result is not on the cache.
+		final Path filePath = Util.getDocumentStore().getPath(userfile);
+		final SecurityContext securityContext = Util.getSecurityContextId();
+		final SignaturePolicy signaturePolicy = SignaturePolicy.PadesBasic;
+		PadesSignature signature = ValidationCache.getPadesSignature(userfile, filePath, signaturePolicy, securityContext, new ValidationCache.Validator<PadesSignature>() {
+			@Override
+			public PadesSignature validate() throws IOException, RestException {
 
-		// Specify that we want to validate the signatures in the file, not only inspect them.
-		sigExplorer.setValidate(true);
+				// Get an instance the PadesSignatureExplorer2 class, used to open/validate PDF signatures.
+				final PadesSignatureExplorer2 sigExplorer = new PadesSignatureExplorer2(Util.getRestPkiClient());
 
-		// Set the PDF file.
-		sigExplorer.setSignatureFile(Application.getTempFolderPath().resolve(userfile));
+				// Specify that we want to validate the signatures in the file, not only inspect them.
+				sigExplorer.setValidate(true);
 
-		// Specify the parameters for the signature validation:
-		// Accept any PAdES signature as long as the signer has an ICP-Brasil certificate.
-		sigExplorer.setDefaultSignaturePolicy(SignaturePolicy.PadesBasic);
-		// Specify the security context to be used to determine trust in the certificate chain. We
-		// have encapsulated the security context on Util.java.
-		sigExplorer.setSecurityContext(Util.getSecurityContextId());
+				// Specify the parameters for the signature validation:
+				// Accept any PAdES signature as long as the signer has an ICP-Brasil certificate.
+				sigExplorer.setDefaultSignaturePolicy(signaturePolicy);
+				// Specify the security context to be used to determine trust in the certificate chain. We
+				// have encapsulated the security context on Util.java.
+				sigExplorer.setSecurityContext(securityContext);
 
-		// Call the open() method, which returns the signature file's information.
-		PadesSignature signature = sigExplorer.open();
+				// Set the PDF file and call the open() method, which returns the signature file's
+				// information. If REST PKI has discarded the uploaded file, it is uploaded again and the
+				// call is retried (see BlobCache.use()).
+				return BlobCache.use(filePath, new BlobCache.Operation<PadesSignature>() {
+					@Override
+					public PadesSignature execute(BlobReference file) throws IOException, RestException {
+						sigExplorer.setSignatureFile(file);
+						return RestPkiMetrics.time("pades.open", signaturePolicy, new RestPkiMetrics.Call<PadesSignature>() {
+							@Override
+							public PadesSignature execute() throws IOException, RestException {
+								return sigExplorer.open();
+							}
+						});
+					}
+				});
+			}
+		});
 
 		// Render the information (see file resources/templates/open-pades-signature.html for more
 		// information on the information returned).
@@ -6,11 +6,13 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import sample.Application;
+import sample.util.RestPkiMetrics;
 import sample.util.Util;
+import sample.util.ValidationCache;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 
 @Controller
@@ -26,25 +28,42 @@ public class OpenXmlSignatureController {
 			HttpServletResponse response
 	) throws IOException, RestException {
 
-		// Get an instance of the XmlSignatureExplorer class, used to open/validate XML signatures.
-		XmlSignatureExplorer sigExplorer = new XmlSignatureExplorer(Util.getRestPkiClient());
+		// Signed files never change, so the validation result is kept on a cache keyed by the
+		// document's ID (which identifies its content), the signature policy and the security
+		// context (see ValidationCache). REST PKI is only called if the result is not on the cache.
+		final Path filePath = Util.getDocumentStore().getPath(userfile);
+		final SecurityContext securityContext = Util.getSecurityContextId();
+		final SignaturePolicy signaturePolicy = SignaturePolicy.XmlDSigBasic;
+		List<XmlSignature> signatures = ValidationCache.getXmlSignatures(userfile, filePath, signaturePolicy, securityContext, new ValidationCache.Validator<List<XmlSignature>>() {
+			@Override
+			public List<XmlSignature> validate() throws IOException, RestException {
 
-		// Specify that we want to validate the signatures in the file, not only inspect them.
-		sigExplorer.setValidate(true);
+				// Get an instance of the XmlSignatureExplorer class, used to open/validate XML signatures.
+				final XmlSignatureExplorer sigExplorer = new XmlSignatureExplorer(Util.getRestPkiClient());
 
-		// Specify the parameters for the signature validation:
-		// Accept any valid XmlDSig Signature as long as the signer has an ICP-Brasil certificate.
-		sigExplorer.setDefaultSignaturePolicy(SignaturePolicy.XmlDSigBasic);
+				// Specify that we want to validate the signatures in the file, not only inspect them.
+				sigExplorer.setValidate(true);
 
-		// Specify the security context to be used to determine trust in the certificate chain. We
-		// have encapsulated the security context choice in Util.java.
-		sigExplorer.setSecurityContext(Util.getSecurityContextId());
+				// Specify the parameters for the signature validation:
+				// Accept any valid XmlDSig Signature as long as the signer has an ICP-Brasil certificate.
+				sigExplorer.setDefaultSignaturePolicy(signaturePolicy);
 
-		// Set the XML file.
-		sigExplorer.setSignatureFile(Application.getTempFolderPath().resolve(userfile));
+				// Specify the security context to be used to determine trust in the certificate chain. We
+				// have encapsulated the security context choice in Util.java.
+				sigExplorer.setSecurityContext(securityContext);
 
-		// Call the open() method, which returns a list of signatures found in the XML file.
-		List<XmlSignature> signatures = sigExplorer.open();
+				// Set the XML file.
+				sigExplorer.setSignatureFile(filePath);
+
+				// Call the open() method, which returns a list of signatures found in the XML file.
+				return RestPkiMetrics.time("xml.open", signaturePolicy, new RestPkiMetrics.Call<List<XmlSignature>>() {
+					@Override
+					public List<XmlSignature> execute() throws IOException, RestException {
+						return sigExplorer.open();
+					}
+				});
+			}
+		});
 
 		// Render the information (see file resources/templates/open-xml-signature.html for more
 		// information on the information returned).
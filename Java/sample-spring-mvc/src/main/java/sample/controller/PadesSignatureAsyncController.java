@@ -0,0 +1,187 @@
+package sample.controller;
+
+import com.lacunasoftware.restpki.*;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.ModelAndView;
+import sample.util.BlobCache;
+import sample.util.DocumentStore;
+import sample.util.PadesVisualElements;
+import sample.util.RestPkiExecutor;
+import sample.util.RestPkiMetrics;
+import sample.util.Util;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Variant of PadesSignatureController which doesn't block the servlet threads while waiting for
+ * REST PKI.
+ * <p>
+ * Each step that calls REST PKI (or reads the document) runs on the executor used for calls to
+ * REST PKI (see RestPkiExecutor), chained with CompletableFuture. The actions return a
+ * DeferredResult, so the servlet thread is released right away and the response is rendered once
+ * the chain completes.
+ */
+@Controller
+public class PadesSignatureAsyncController {
+
+	/**
+	 * This action initiates a PAdES signature using REST PKI and renders the signature page. See
+	 * PadesSignatureController.get() for the details of each step.
+	 */
+	@RequestMapping(value = "/pades-signature-async", method = {RequestMethod.GET})
+	public DeferredResult<ModelAndView> get(
+			@RequestParam(value = "userfile", required = false) final String userfile,
+			HttpServletResponse response
+	) throws IOException {
+
+		final Path pdfPath = (userfile != null && !userfile.isEmpty())
+				? Util.getDocumentStore().getPath(userfile)
+				: Util.getSampleDocPath();
+
+		// The visual representation (which might need the positioning presets from REST PKI) and
+		// the upload of the PDF to be signed don't depend on each other, so both are done at the
+		// same time.
+		CompletableFuture<PadesVisualRepresentation> visualRepresentationFuture = CompletableFuture.supplyAsync(new Supplier<PadesVisualRepresentation>() {
+			@Override
+			public PadesVisualRepresentation get() {
+				try {
+					return PadesVisualElements.getVisualRepresentation();
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				}
+			}
+		}, RestPkiExecutor.get());
+		CompletableFuture<BlobReference> pdfFuture = CompletableFuture.supplyAsync(new Supplier<BlobReference>() {
+			@Override
+			public BlobReference get() {
+				try {
+					return BlobCache.get(pdfPath);
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				}
+			}
+		}, RestPkiExecutor.get());
+
+		// Once both are available, start the signature.
+		CompletableFuture<SignatureStartWithWebPkiResult> startFuture = visualRepresentationFuture.thenCombineAsync(pdfFuture, new BiFunction<PadesVisualRepresentation, BlobReference, SignatureStartWithWebPkiResult>() {
+			@Override
+			public SignatureStartWithWebPkiResult apply(PadesVisualRepresentation visualRepresentation, BlobReference uploadedPdf) {
+				try {
+					final PadesSignatureStarter2 signatureStarter = new PadesSignatureStarter2(Util.getRestPkiClient());
+					signatureStarter.setMeasurementUnits(PadesMeasurementUnits.Centimeters);
+					final SignaturePolicy signaturePolicy = SignaturePolicy.PadesBasic;
+					signatureStarter.setSignaturePolicy(signaturePolicy);
+					signatureStarter.setSecurityContext(Util.getSecurityContextId());
+					signatureStarter.setVisualRepresentation(visualRepresentation);
+					// The upload above is kept on BlobCache, which returns it again here. If REST PKI
+					// has discarded it meanwhile, the PDF is uploaded again and the call is retried.
+					return BlobCache.use(pdfPath, new BlobCache.Operation<SignatureStartWithWebPkiResult>() {
+						@Override
+						public SignatureStartWithWebPkiResult execute(BlobReference pdf) throws IOException, RestException {
+							signatureStarter.setPdfToSign(pdf);
+							return RestPkiMetrics.time("pades.start", signaturePolicy, new RestPkiMetrics.Call<SignatureStartWithWebPkiResult>() {
+								@Override
+								public SignatureStartWithWebPkiResult execute() throws IOException, RestException {
+									return signatureStarter.startWithWebPki();
+								}
+							});
+						}
+					});
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				}
+			}
+		}, RestPkiExecutor.get());
+
+		// Prevent the browser from caching the page with a token that can only be used once (see
+		// PadesSignatureController). The headers are set now, while the request is still being
+		// handled by the servlet thread.
+		Util.setNoCacheHeaders(response);
+
+		final DeferredResult<ModelAndView> deferredResult = new DeferredResult<ModelAndView>();
+		startFuture.whenComplete(new BiConsumer<SignatureStartWithWebPkiResult, Throwable>() {
+			@Override
+			public void accept(SignatureStartWithWebPkiResult result, Throwable ex) {
+				if (ex != null) {
+					deferredResult.setErrorResult(unwrap(ex));
+					return;
+				}
+
+				// Render the signature page (templates/pades-signature.html). The page's form is
+				// submitted to the same URL, that is, to the post() method below.
+				ModelAndView modelAndView = new ModelAndView("pades-signature");
+				modelAndView.addObject("token", result.getToken());
+				modelAndView.addObject("userfile", userfile);
+				deferredResult.setResult(modelAndView);
+			}
+		});
+		return deferredResult;
+	}
+
+	/**
+	 * This action receives the form submission from the signature page and completes the
+	 * signature.
+	 */
+	@RequestMapping(value = "/pades-signature-async", method = {RequestMethod.POST})
+	public DeferredResult<ModelAndView> post(
+			@RequestParam(value = "token") final String token
+	) {
+
+		final DeferredResult<ModelAndView> deferredResult = new DeferredResult<ModelAndView>();
+		CompletableFuture.supplyAsync(new Supplier<ModelAndView>() {
+			@Override
+			public ModelAndView get() {
+				try {
+					final PadesSignatureFinisher2 signatureFinisher = new PadesSignatureFinisher2(Util.getRestPkiClient());
+					signatureFinisher.setToken(token);
+					SignatureResult signatureResult = RestPkiMetrics.time("pades.finish", new RestPkiMetrics.Call<SignatureResult>() {
+						@Override
+						public SignatureResult execute() throws IOException, RestException {
+							return signatureFinisher.finish();
+						}
+					});
+
+					String filename = Util.getDocumentStore().store(new DocumentStore.ContentWriter() {
+						@Override
+						public void write(Path target) throws Exception {
+							signatureResult.writeToFile(target);
+						}
+					}, ".pdf");
+
+					// Render the signature page (templates/pades-signature-info.html).
+					ModelAndView modelAndView = new ModelAndView("pades-signature-info");
+					modelAndView.addObject("signerCert", signatureResult.getCertificate());
+					modelAndView.addObject("filename", filename);
+					return modelAndView;
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				}
+			}
+		}, RestPkiExecutor.get()).whenComplete(new BiConsumer<ModelAndView, Throwable>() {
+			@Override
+			public void accept(ModelAndView modelAndView, Throwable ex) {
+				if (ex != null) {
+					deferredResult.setErrorResult(unwrap(ex));
+				} else {
+					deferredResult.setResult(modelAndView);
+				}
+			}
+		});
+		return deferredResult;
+	}
+
+	private static Throwable unwrap(Throwable ex) {
+		return (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+	}
+}
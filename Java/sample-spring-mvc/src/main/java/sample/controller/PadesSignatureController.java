@@ -4,13 +4,16 @@ import com.lacunasoftware.restpki.*;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
-import sample.Application;
+import sample.util.BlobCache;
+import sample.util.DocumentStore;
+import sample.util.DirectDelivery;
 import sample.util.PadesVisualElements;
+import sample.util.RestPkiMetrics;
 import sample.util.Util;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.UUID;
+import java.nio.file.Path;
 
 @Controller
 public class PadesSignatureController {
@@ -37,7 +40,8 @@ public class PadesSignatureController {
 		signatureStarter.setMeasurementUnits(PadesMeasurementUnits.Centimeters);
 
 		// Set the signature policy.
-		signatureStarter.setSignaturePolicy(SignaturePolicy.PadesBasic);
+		final SignaturePolicy signaturePolicy = SignaturePolicy.PadesBasic;
+		signatureStarter.setSignaturePolicy(signaturePolicy);
 
 		// Set a SecurityContext to be used to determine trust in the certificate chain. We have
 		// encapsulated the security context choice on Util.java.
@@ -49,22 +53,23 @@ public class PadesSignatureController {
 		// Create a visual representation for the signature.
 		signatureStarter.setVisualRepresentation(PadesVisualElements.getVisualRepresentation());
 
-		// Below we'll either set the PDF file to be signed. Prefer passing a path or a stream
-		// instead of the file's contents as a byte array to prevent memory allocation issues with
-		// large files.
+		// Below we'll determine the PDF file to be signed. The file is passed through BlobCache (see
+		// the call to startWithWebPki() below), which uploads each content to REST PKI only once and
+		// reuses the uploaded blob on subsequent operations on the same content.
+		Path pdfPath;
 		if (userfile != null && !userfile.isEmpty()) {
 
 			// If the URL argument "userfile" is filled, it means the user was redirected here by
 			// UploadController (signature with file uploaded by user). We'll set the path of the
 			// file to be signed, which was saved in the temporary folder by UploadController (such a
 			// file would normally come from your application's database).
-			signatureStarter.setPdfToSign(Application.getTempFolderPath().resolve(userfile));
+			pdfPath = Util.getDocumentStore().getPath(userfile);
 
 		} else {
 
 			// If both userfile is null, this is the "signature with server file" case. We'll set
 			// file to be signed by passing its path.
-			signatureStarter.setPdfToSign(Util.getSampleDocPath());
+			pdfPath = Util.getSampleDocPath();
 
 		}
 
@@ -89,8 +94,20 @@ public class PadesSignatureController {
 		// We'll use this value to call the signWithRestPki() method on the Web PKI component
 		// (see file static/js/signature-form.js) and also to complete the signature after the form
 		// is submitted (see method complete() below). This should not be mistaken with the API
-		// access token.
-		SignatureStartWithWebPkiResult result = signatureStarter.startWithWebPki();
+		// access token. The PDF to be signed is set right before, so that the call can be retried
+		// with a new upload if REST PKI has discarded the uploaded file (see BlobCache.use()).
+		SignatureStartWithWebPkiResult result = BlobCache.use(pdfPath, new BlobCache.Operation<SignatureStartWithWebPkiResult>() {
+			@Override
+			public SignatureStartWithWebPkiResult execute(BlobReference pdf) throws IOException, RestException {
+				signatureStarter.setPdfToSign(pdf);
+				return RestPkiMetrics.time("pades.start", signaturePolicy, new RestPkiMetrics.Call<SignatureStartWithWebPkiResult>() {
+					@Override
+					public SignatureStartWithWebPkiResult execute() throws IOException, RestException {
+						return signatureStarter.startWithWebPki();
+					}
+				});
+			}
+		});
 
 		// The token acquired above can only be used for a single signature attempt. In order to
 		// retry the signature it is necessary to get a new token. This can be a problem if the user
@@ -125,7 +142,12 @@ public class PadesSignatureController {
 
 		// Call the finish() method, which finalizes the signature process and returns a
 		// SignatureResult object.
-		SignatureResult signatureResult = signatureFinisher.finish();
+		SignatureResult signatureResult = RestPkiMetrics.time("pades.finish", new RestPkiMetrics.Call<SignatureResult>() {
+			@Override
+			public SignatureResult execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
 
 		// The "certificate" field of the SignatureResult object contains information about the
 		// certificate used by the user to sign the file.
@@ -135,17 +157,47 @@ public class PadesSignatureController {
 		// purposes, we'll store the PDF on a temporary folder and return to the page an identifier
 		// that can be used to download it.
 
-		String filename = UUID.randomUUID() + ".pdf";
-
 		// The SignatureResult object has various methods for writing the signature file to a
 		// (writeTo()), local file (writeToFile()), open a stream to read the content (openRead())
 		// and get its contents (getContent()). For large files, avoid the method getContent() to
 		// avoid memory allocation issues.
-		signatureResult.writeToFile(Application.getTempFolderPath().resolve(filename));
+		String filename = Util.getDocumentStore().store(new DocumentStore.ContentWriter() {
+			@Override
+			public void write(Path target) throws Exception {
+				signatureResult.writeToFile(target);
+			}
+		}, ".pdf");
+		RestPkiMetrics.recordPayloadSize("pades.finish", "download", Util.getDocumentStore().getInfo(filename).getSize());
 
 		// Render the signature page (templates/pades-signature-info.html).
 		model.addAttribute("signerCert", signerCert);
 		model.addAttribute("filename", filename);
 		return "pades-signature-info";
 	}
+
+	/**
+	 * Same as the action above, but sends the signed PDF itself as the response instead of
+	 * rendering a page with a link to download it ("direct delivery", see DirectDelivery). This
+	 * saves the client a second request, and the server a second read of the document, when the
+	 * signed file is all the client needs. Select it by submitting the form with delivery=direct.
+	 */
+	@RequestMapping(value = "/pades-signature", method = {RequestMethod.POST}, params = "delivery=direct")
+	public void postDirect(
+			@RequestParam(value = "token") String token,
+			HttpServletResponse response
+	) throws IOException, RestException {
+
+		// Complete the signature as above.
+		PadesSignatureFinisher2 signatureFinisher = new PadesSignatureFinisher2(Util.getRestPkiClient());
+		signatureFinisher.setToken(token);
+		SignatureResult signatureResult = RestPkiMetrics.time("pades.finish", new RestPkiMetrics.Call<SignatureResult>() {
+			@Override
+			public SignatureResult execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
+
+		// Stream the signed file to the response. It is stored in the background afterwards.
+		DirectDelivery.send(signatureResult, "pades.finish", ".pdf", "application/pdf", response);
+	}
 }
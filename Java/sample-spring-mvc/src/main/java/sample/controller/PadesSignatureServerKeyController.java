@@ -1,26 +1,43 @@
 package sample.controller;
 
 import com.lacunasoftware.restpki.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import sample.Application;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import sample.util.BlobCache;
+import sample.util.DocumentStore;
+import sample.util.KeyStoreCache;
 import sample.util.PadesVisualElements;
+import sample.util.RestPkiExecutor;
+import sample.util.RestPkiMetrics;
+import sample.util.ServerKeySigner;
 import sample.util.Util;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
-import java.security.Signature;
 import java.security.cert.Certificate;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 @Controller
 public class PadesSignatureServerKeyController {
 
+	// Maximum number of documents accepted by the action /pades-signature-server-key-batch.
+	private static final int maxDocumentsPerRequest = 100;
+
 	/**
 	 * This action performs a PAdES signature using REST PKI and a PKCS#12 certificate. It renders
 	 * the signature page.
@@ -52,28 +69,30 @@ public class PadesSignatureServerKeyController {
 		// should be used FOR DEVELOPMENT PUPOSES ONLY. In production, you'll typically want one of
 		// the alternatives below. For more test certificates, see:
 		// https://github.com/LacunaSoftware/RestPkiSamples/blob/master/TestCertificates.md
-		signatureStarter.setSignaturePolicy(SignaturePolicy.PadesBasic);
+		final SignaturePolicy signaturePolicy = SignaturePolicy.PadesBasic;
+		signatureStarter.setSignaturePolicy(signaturePolicy);
 		signatureStarter.setSecurityContext(SecurityContext.lacunaTest);
 
 		// Create a visual representation for the signature.
 		signatureStarter.setVisualRepresentation(PadesVisualElements.getVisualRepresentation());
 
-		// Below we'll either set the PDF file to be signed. Prefer passing a path or a stream
-		// instead of the file's contents as a byte array to prevent memory allocation issues with
-		// large files.
+		// Below we'll determine the PDF file to be signed. The file is passed through BlobCache (see
+		// the call to start() below), which uploads each content to REST PKI only once and reuses
+		// the uploaded blob on subsequent operations on the same content.
+		Path pdfPath;
 		if (userfile != null && !userfile.isEmpty()) {
 
 			// If the URL argument "userfile" is filled, it means the user was redirected here by
 			// UploadController (signature with file uploaded by user). We'll set the path of the file
 			// to be signed, which was saved in the temporary folder by UploadController (such a file
 			// would normally come from your application's database).
-			signatureStarter.setPdfToSign(Application.getTempFolderPath().resolve(userfile));
+			pdfPath = Util.getDocumentStore().getPath(userfile);
 
 		} else {
 
 			// If both userfile is null, this is the "signature with server file" case. We'll set the
 			// file to be signed by passing its path.
-			signatureStarter.setPdfToSign(Util.getSampleDocPath());
+			pdfPath = Util.getSampleDocPath();
 
 		}
 
@@ -93,8 +112,21 @@ public class PadesSignatureServerKeyController {
 		//signatureStarter.addPdfMark(PadesVisualElements.getPdfMark(1));
 
 		// Call the start() method, which initiates the signature. This yields the parameters for
-		// the signature using the certificate.
-		SignatureStartResult result = signatureStarter.start();
+		// the signature using the certificate. The PDF to be signed is set right before, so that the
+		// call can be retried with a new upload if REST PKI has discarded the uploaded file (see
+		// BlobCache.use()).
+		SignatureStartResult result = BlobCache.use(pdfPath, new BlobCache.Operation<SignatureStartResult>() {
+			@Override
+			public SignatureStartResult execute(BlobReference pdf) throws IOException, RestException {
+				signatureStarter.setPdfToSign(pdf);
+				return RestPkiMetrics.time("pades.start", signaturePolicy, new RestPkiMetrics.Call<SignatureStartResult>() {
+					@Override
+					public SignatureStartResult execute() throws IOException, RestException {
+						return signatureStarter.start();
+					}
+				});
+			}
+		});
 
 		// Get the key from a PKCS#12 file.
 		PrivateKey pkey = (PrivateKey) Util.getSampleKeyFromPKCS12();
@@ -102,14 +134,10 @@ public class PadesSignatureServerKeyController {
 		// Alternative option: Get the key from Microsoft CryptoAPI.
 		//PrivateKey pkey = (PrivateKey) Util.getSampleKeyFromMSCAPI();
 
-		// Initialize  the signature using the parameters returned by Rest PKI with the signer's key.
-		Signature signature = Signature.getInstance(result.getSignatureAlgorithm());
-		signature.initSign(pkey);
-		// Set the toSignData, provided by Rest PKI.
-		byte[] toSignData = result.getToSignDataRaw();
-		signature.update(toSignData, 0, toSignData.length);
-		// Perform the signature.
-		byte[] sig = signature.sign();
+		// Perform the signature of the toSignData, provided by Rest PKI, with the signature
+		// algorithm also provided by Rest PKI and the signer's key. The ServerKeySigner class reuses
+		// initialized java.security.Signature instances between calls.
+		byte[] sig = ServerKeySigner.sign(result.getSignatureAlgorithm(), pkey, result.getToSignDataRaw());
 
 		//
 		// Get an instance of the PadesSignatureFinisher2 class, responsible for completing the
@@ -124,7 +152,12 @@ public class PadesSignatureServerKeyController {
 
 		// Call the finish() method, which finalizes the signature process and returns a
 		// SignatureResult object.
-		SignatureResult signatureResult = signatureFinisher.finish();
+		SignatureResult signatureResult = RestPkiMetrics.time("pades.finish", new RestPkiMetrics.Call<SignatureResult>() {
+			@Override
+			public SignatureResult execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
 
 		// The "certificate" field of the SignatureResult object contains information about the
 		// certificate used by the user to sign the file.
@@ -134,17 +167,155 @@ public class PadesSignatureServerKeyController {
 		// purposes, we'll store the PDF on a temporary folder and return to the page an identifier
 		// that can be used to download it.
 
-		String filename = UUID.randomUUID() + ".pdf";
-
 		// The SignatureResult object has various methods for writing the signature file to a stream
 		// (writeTo()), local file (writeToFile()), open a stream to read the content (openRead())
 		// and get its contents (getContent()). For large files, avoid the method getContent() to
 		// avoid memory allocation issues.
-		signatureResult.writeToFile(Application.getTempFolderPath().resolve(filename));
+		String filename = Util.getDocumentStore().store(new DocumentStore.ContentWriter() {
+			@Override
+			public void write(Path target) throws Exception {
+				signatureResult.writeToFile(target);
+			}
+		}, ".pdf");
 
 		// Render the signature page (templates/pades-signature-info.html).
 		model.addAttribute("signerCert", signerCert);
 		model.addAttribute("filename", filename);
 		return "pades-signature-server-key";
 	}
+
+	/**
+	 * This action performs the PAdES signatures of many documents using REST PKI and a PKCS#12
+	 * certificate, without user interaction. This is the typical scenario of an unattended bulk
+	 * signature, such as a nightly job signing the documents issued during the day.
+	 * <p>
+	 * Each document goes through the same steps of the action above (start, signature with the
+	 * server key and finish). The documents are processed concurrently on the server (see
+	 * RestPkiExecutor, whose parallelism is configured on application.properties). The response
+	 * contains one entry per document, in the same order as the given IDs, with either the name of
+	 * the signed file or the error that prevented the document from being signed.
+	 */
+	@RequestMapping(value = "/pades-signature-server-key-batch", method = {RequestMethod.POST}, produces = {MediaType.APPLICATION_JSON_VALUE})
+	public @ResponseBody List<BatchResult> batch(
+			@RequestParam(value = "ids") List<Integer> ids
+	) throws IOException, GeneralSecurityException, InterruptedException {
+
+		if (ids.size() > maxDocumentsPerRequest) {
+			throw new IllegalArgumentException("Too many documents on a single request (maximum is " + maxDocumentsPerRequest + ")");
+		}
+
+		// The key material is loaded once and shared by all signatures of the batch.
+		final KeyStoreCache.KeyEntry keyEntry = Util.getSampleKeyEntryFromPKCS12();
+
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+		for (final Integer id : ids) {
+			futures.add(RestPkiExecutor.get().submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return signBatchDocument(Util.getBatchDocPath(id), keyEntry);
+				}
+			}));
+		}
+
+		List<BatchResult> results = new ArrayList<BatchResult>();
+		for (int i = 0; i < ids.size(); i++) {
+			BatchResult result = new BatchResult(ids.get(i));
+			try {
+				result.setFilename(futures.get(i).get());
+			} catch (ExecutionException e) {
+				result.setError(e.getCause().getMessage());
+			}
+			results.add(result);
+		}
+		return results;
+	}
+
+	/*
+	 * Invalid batches (see the check on the action above) result in a "Bad Request" response.
+	 */
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public void handleInvalidBatch() {
+	}
+
+	private String signBatchDocument(Path pdfPath, KeyStoreCache.KeyEntry keyEntry) throws IOException, RestException, GeneralSecurityException {
+
+		// Start the signature (see the get() action above for details on each parameter).
+		final PadesSignatureStarter2 signatureStarter = new PadesSignatureStarter2(Util.getRestPkiClient());
+		signatureStarter.setSignerCertificateRaw(keyEntry.getEncodedCertificate());
+		signatureStarter.setMeasurementUnits(PadesMeasurementUnits.Centimeters);
+		final SignaturePolicy signaturePolicy = SignaturePolicy.PadesBasic;
+		signatureStarter.setSignaturePolicy(signaturePolicy);
+		signatureStarter.setSecurityContext(SecurityContext.lacunaTest);
+		signatureStarter.setVisualRepresentation(PadesVisualElements.getVisualRepresentation());
+		SignatureStartResult result = BlobCache.use(pdfPath, new BlobCache.Operation<SignatureStartResult>() {
+			@Override
+			public SignatureStartResult execute(BlobReference pdf) throws IOException, RestException {
+				signatureStarter.setPdfToSign(pdf);
+				return RestPkiMetrics.time("pades.start", signaturePolicy, new RestPkiMetrics.Call<SignatureStartResult>() {
+					@Override
+					public SignatureStartResult execute() throws IOException, RestException {
+						return signatureStarter.start();
+					}
+				});
+			}
+		});
+
+		// Sign the toSignData with the server key.
+		byte[] sig = ServerKeySigner.sign(result.getSignatureAlgorithm(), keyEntry.getPrivateKey(), result.getToSignDataRaw());
+
+		// Finish the signature and store the signed PDF.
+		PadesSignatureFinisher2 signatureFinisher = new PadesSignatureFinisher2(Util.getRestPkiClient());
+		signatureFinisher.setToken(result.getToken());
+		signatureFinisher.setSignature(sig);
+		SignatureResult signatureResult = RestPkiMetrics.time("pades.finish", new RestPkiMetrics.Call<SignatureResult>() {
+			@Override
+			public SignatureResult execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
+
+		String filename = Util.getDocumentStore().store(new DocumentStore.ContentWriter() {
+			@Override
+			public void write(Path target) throws Exception {
+				signatureResult.writeToFile(target);
+			}
+		}, ".pdf");
+		return filename;
+	}
+
+	/**
+	 * Result of the signature of a single document on the action
+	 * /pades-signature-server-key-batch (serialized to JSON).
+	 */
+	public static class BatchResult {
+
+		private int id;
+		private String filename;
+		private String error;
+
+		public BatchResult(int id) {
+			this.id = id;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public String getFilename() {
+			return filename;
+		}
+
+		public void setFilename(String filename) {
+			this.filename = filename;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		public void setError(String error) {
+			this.error = error;
+		}
+	}
 }
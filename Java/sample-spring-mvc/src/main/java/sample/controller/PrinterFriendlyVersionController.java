@@ -6,21 +6,25 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import sample.Application;
-import sample.util.StorageMock;
+import sample.util.BlobCache;
+import sample.util.DiskCache;
+import sample.util.RestPkiMetrics;
+import sample.util.StorageJanitor;
 import sample.util.Util;
 
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
 import java.awt.*;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.function.Supplier;
 
 @Controller
 public class PrinterFriendlyVersionController {
@@ -51,40 +55,76 @@ public class PrinterFriendlyVersionController {
 	// generatePrinterFriendlyVersion() below
 	// #############################################################################################
 
+	private static volatile DiskCache cache;
+
 	@RequestMapping(value = "/printer-friendly-version", method = {RequestMethod.GET})
 	public void get(
 		HttpServletResponse response,
-		HttpSession session,
 		@RequestParam(value = "fileId") String fileId
 	) throws IOException, RestException {
 
 		// Locate document. This document should not continue if the file was not found.
-		if (!Files.exists(Application.getTempFolderPath().resolve(fileId))) {
+		if (!Util.getDocumentStore().exists(fileId)) {
 			// Return "Not Found" code.
 			response.setStatus(404);
 			return;
 		}
-		byte[] fileContent = Files.readAllBytes(Application.getTempFolderPath().resolve(fileId));
-
-		// Check if doc already has a verification code registered on storage.
-		String verificationCode = StorageMock.getVerificationCode(session, fileId);
-		if (verificationCode == null) {
-			// If not, generate and register it.
-			verificationCode = AlphaCode.generate();
-			StorageMock.setVerificationCode(session, fileId, verificationCode);
-		}
-
-		// Generate the printer-friendly version.
-		byte[] pfvContent = generatePrinterFriendlyVersion(fileContent, verificationCode);
+		final Path filePath = Util.getDocumentStore().getPath(fileId);
+
+		// Get the verification code registered on storage for the document or, if it has none,
+		// generate and register it. Concurrent requests for the same document get the same code.
+		String verificationCode = Util.getVerificationCodeStore().getOrCreateVerificationCode(fileId, new Supplier<String>() {
+			@Override
+			public String get() {
+				return AlphaCode.generate();
+			}
+		});
+
+		// The printer-friendly version depends only on the document's content and on the
+		// verification code, so once generated it is kept on a cache (see getCache() below) under
+		// a key composed of both. Stored documents are never modified, so the document's ID
+		// identifies its content (it already contains the hash of the content, see
+		// ContentAddressedDocumentStore), and the document doesn't need to be read to find the
+		// cache entry. Subsequent requests are served from the cache without calling REST PKI.
+		String cacheKey = fileId + "-" + verificationCode + ".pdf";
+		final String code = verificationCode;
+		InputStream pfvStream = getCache().open(cacheKey, new DiskCache.Generator() {
+			@Override
+			public void generate(Path target) throws Exception {
+				// Generate the printer-friendly version.
+				generatePrinterFriendlyVersion(filePath, code).writeToFile(target);
+			}
+		});
 
 		// Return printer-friendly version as a downloadable file.
-		response.setHeader("Content-Disposition", "attachment; filename=printer-friendly.pdf");
-		OutputStream outStream = response.getOutputStream();
-		org.apache.commons.io.IOUtils.write(pfvContent, outStream);
-		outStream.close();
+		try {
+			response.setHeader("Content-Disposition", "attachment; filename=printer-friendly.pdf");
+			OutputStream outStream = response.getOutputStream();
+			org.apache.commons.io.IOUtils.copy(pfvStream, outStream);
+			outStream.close();
+		} finally {
+			pfvStream.close();
+		}
 	}
 
-	private byte[] generatePrinterFriendlyVersion(byte[] pdfContent, String verificationCode) throws IOException, RestException {
+	private static DiskCache getCache() throws IOException {
+		DiskCache current = cache;
+		if (current == null) {
+			synchronized (PrinterFriendlyVersionController.class) {
+				current = cache;
+				if (current == null) {
+					String maxSize = Application.environment.getProperty("printerFriendlyCache.maxSizeMb");
+					long maxSizeMb = (maxSize != null && maxSize.length() > 0) ? Long.parseLong(maxSize) : 512;
+					current = new DiskCache(Application.getTempFolderPath().resolve("printer-friendly-cache"), maxSizeMb * 1024 * 1024);
+					StorageJanitor.register("printerFriendly", current);
+					cache = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	private FileResult generatePrinterFriendlyVersion(Path pdfPath, String verificationCode) throws IOException, RestException {
 
 		RestPkiClient client = Util.getRestPkiClient();
 
@@ -97,32 +137,41 @@ public class PrinterFriendlyVersionController {
 		// formatted verification code.
 		String verificationLink = String.format(verificationLinkFormat, formattedVerificationCode);
 
-		// 1. Upload the PDF
-
-		BlobReference blob = client.uploadFile(pdfContent);
-
+		// 1. Upload the PDF (or reuse a recent upload of the same content, see BlobCache) and
 		// 2. Inspect signatures on the uploaded PDF
 
 		// Get an instance of the PadesSignatureExplorer2 class, used to open/validate PDF
 		// signatures.
-		PadesSignatureExplorer2 sigExplorer = new PadesSignatureExplorer2(client);
+		final PadesSignatureExplorer2 sigExplorer = new PadesSignatureExplorer2(client);
 		// Specify that we want to validate the signatures in the file, not only inspect them.
 		sigExplorer.setValidate(true);
-		// Set the PDF file.
-		sigExplorer.setSignatureFile(blob);
 		// Specify the parameters for the signature validation:
 		// Accept any PAdES signature as long as the signer has an ICP-Brasil certificate.
-		sigExplorer.setDefaultSignaturePolicy(SignaturePolicy.PadesBasic);
+		final SignaturePolicy signaturePolicy = SignaturePolicy.PadesBasic;
+		sigExplorer.setDefaultSignaturePolicy(signaturePolicy);
 		// Specify the security context to be used to determine trust in the certificate chain. We
 		// have encapsulated the security context on Util.java.
 		sigExplorer.setSecurityContext(Util.getSecurityContextId());
-		// Call the open() method, which returns the signature file's information.
-		PadesSignature signature = sigExplorer.open();
+		// Set the PDF file and call the open() method, which returns the signature file's
+		// information. If REST PKI has discarded the uploaded file, it is uploaded again and the
+		// call is retried (see BlobCache.use()).
+		PadesSignature signature = BlobCache.use(pdfPath, new BlobCache.Operation<PadesSignature>() {
+			@Override
+			public PadesSignature execute(BlobReference blob) throws IOException, RestException {
+				sigExplorer.setSignatureFile(blob);
+				return RestPkiMetrics.time("pades.open", signaturePolicy, new RestPkiMetrics.Call<PadesSignature>() {
+					@Override
+					public PadesSignature execute() throws IOException, RestException {
+						return sigExplorer.open();
+					}
+				});
+			}
+		});
 
 		// 3. Create PDF with verification information from uploaded PDF
 
 		PdfMarker pdfMarker = new PdfMarker(client);
-		pdfMarker.setFile(blob);
+		pdfMarker.setFile(BlobCache.get(pdfPath));
 
 		// Build string with joined names of signers (see method getDisplayName below).
 		List<String> signerNamesList = new ArrayList<String>();
@@ -266,10 +315,15 @@ public class PrinterFriendlyVersionController {
 
 		// Apply marks
 		pdfMarker.addMark(manifestMark);
-		FileResult result = pdfMarker.apply();
+		FileResult result = RestPkiMetrics.time("pdf.mark", new RestPkiMetrics.Call<FileResult>() {
+			@Override
+			public FileResult execute() throws IOException, RestException {
+				return pdfMarker.apply();
+			}
+		});
 
 		// Return result
-		return result.getContent();
+		return result;
 
 	}
 
@@ -1,19 +1,22 @@
 package sample.controller;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
-import sample.Application;
+import sample.util.Util;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.util.UUID;
+import java.io.InputStream;
 
 @Controller
 public class UploadController {
 
+	private static final Logger logger = LoggerFactory.getLogger(UploadController.class);
+
 	@RequestMapping(value = "/upload", method = {RequestMethod.GET})
 	public String get(@RequestParam(value = "goto", required = true) String goTo) {
 		return "upload";
@@ -21,7 +24,6 @@ public class UploadController {
 
 	@RequestMapping(value = "/upload", method = {RequestMethod.POST})
 	public String post(@RequestParam(value = "goto", required = true) String goTo, @RequestParam("userfile") MultipartFile userfile) throws IOException {
-		byte[] fileContent = userfile.getBytes();
 		String originalFilename = userfile.getOriginalFilename();
 		int i = originalFilename.lastIndexOf('.');
 		String fileExtension;
@@ -30,8 +32,19 @@ public class UploadController {
 		} else {
 			fileExtension = "";
 		}
-		String filename = UUID.randomUUID() + fileExtension;
-		Files.write(Application.getTempFolderPath().resolve(filename), fileContent);
+
+		// Stream the uploaded file to storage instead of reading it into memory with getBytes(),
+		// so that large files don't have to fit on the heap. The document store names the file
+		// after the hash of its content, so uploading the same file again reuses the stored copy.
+		InputStream fileStream = userfile.getInputStream();
+		String filename;
+		try {
+			filename = Util.getDocumentStore().storeUpload(fileStream, fileExtension);
+		} finally {
+			fileStream.close();
+		}
+		logger.info("Uploaded file {} ({} bytes)", filename, userfile.getSize());
+
 		return "redirect:/" + goTo + "?userfile=" + filename;
 	}
 
@@ -6,13 +6,11 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import sample.Application;
+import sample.util.RestPkiMetrics;
 import sample.util.Util;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.util.UUID;
 
 /**
  * This controller performs two signatures on the same XML document, one on each element, according
@@ -53,7 +51,8 @@ public class XmlCodSignatureController {
 		signatureStarter.setElementToSIgnId("COD");
 
 		// Set the signature policy.
-		signatureStarter.setSignaturePolicy(SignaturePolicy.CodSha1);
+		final SignaturePolicy signaturePolicy = SignaturePolicy.CodSha1;
+		signatureStarter.setSignaturePolicy(signaturePolicy);
 
 		// Set the security context to be used to determine trust in the certificate chain. We have
 		// encapsulated the security context choice on Util.java.
@@ -65,7 +64,12 @@ public class XmlCodSignatureController {
 		// (see file signature-form.js) and also to complete the signature after the form is
 		// submitted (see method post() below). This should not be mistaken with the API access
 		// token.
-		String token = signatureStarter.startWithWebPki();
+		String token = RestPkiMetrics.time("xml.start", signaturePolicy, new RestPkiMetrics.Call<String>() {
+			@Override
+			public String execute() throws IOException, RestException {
+				return signatureStarter.startWithWebPki();
+			}
+		});
 
 		// The token acquired above can only be used for a single signature attempt. In order to
 		// retry the signature it is necessary to get a new token. This can be a problem if the user
@@ -95,7 +99,13 @@ public class XmlCodSignatureController {
 
 		// Call the finish() method, which finalizes the signature process and returns the signed
 		// XML's bytes.
-		byte[] signedXml = signatureFinisher.finish();
+		byte[] signedXml = RestPkiMetrics.time("xml.finish", new RestPkiMetrics.Call<byte[]>() {
+			@Override
+			public byte[] execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
+		RestPkiMetrics.recordPayloadSize("xml.finish", "download", signedXml.length);
 
 		// Get information about the certificate used by the user to sign the file. This method must
 		// only be called after calling the finish() method.
@@ -105,8 +115,7 @@ public class XmlCodSignatureController {
 		// purposes, we'll store the XML on a temporary folder and return to the page an identifier
 		// that can be used to download it.
 
-		String filename = UUID.randomUUID() + ".xml";
-		Files.write(Application.getTempFolderPath().resolve(filename), signedXml);
+		String filename = Util.getDocumentStore().store(signedXml, ".xml");
 
 		// Render the signature page (templates/xml-cod-signature-sign-cod-result.html).
 		model.addAttribute("signerCert", signerCert);
@@ -126,13 +135,14 @@ public class XmlCodSignatureController {
 		XmlElementSignatureStarter signatureStarter = new XmlElementSignatureStarter(Util.getRestPkiClient());
 
 		// Set the path of the XML to be signed, a sample Brazilian fiscal invoice pre-generated.
-		signatureStarter.setXml(Application.getTempFolderPath().resolve(userfile));
+		signatureStarter.setXml(Util.getDocumentStore().getPath(userfile));
 
 		// Set the ID of the element to be signed.
 		signatureStarter.setElementToSIgnId("CODEH");
 
 		// Set the signature policy.
-		signatureStarter.setSignaturePolicy(SignaturePolicy.CodSha1);
+		final SignaturePolicy signaturePolicy = SignaturePolicy.CodSha1;
+		signatureStarter.setSignaturePolicy(signaturePolicy);
 
 		// Set the security context to be used to determine trust in the certificate chain. We have
 		// encapsulated the security context choice on Util.java.
@@ -144,7 +154,12 @@ public class XmlCodSignatureController {
 		// (see file signature-form.js) and also to complete the signature after the form is
 		// submitted (see method post() below). This should not be mistaken with the API access
 		// token.
-		String token = signatureStarter.startWithWebPki();
+		String token = RestPkiMetrics.time("xml.start", signaturePolicy, new RestPkiMetrics.Call<String>() {
+			@Override
+			public String execute() throws IOException, RestException {
+				return signatureStarter.startWithWebPki();
+			}
+		});
 
 		// The token acquired above can only be used for a single signature attempt. In order to
 		// retry the signature it is necessary to get a new token. This can be a problem if the user
@@ -175,7 +190,13 @@ public class XmlCodSignatureController {
 
 		// Call the finish() method, which finalizes the signature process and returns the signed
 		// XML's bytes.
-		byte[] signedXml = signatureFinisher.finish();
+		byte[] signedXml = RestPkiMetrics.time("xml.finish", new RestPkiMetrics.Call<byte[]>() {
+			@Override
+			public byte[] execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
+		RestPkiMetrics.recordPayloadSize("xml.finish", "download", signedXml.length);
 
 		// Get information about the certificate used by the user to sign the file. This method must
 		// only be called after calling the finish() method.
@@ -185,8 +206,7 @@ public class XmlCodSignatureController {
 		// purposes, we'll store the XML on a temporary folder and return to the page an identifier
 		// that can be used to download it.
 
-		String filename = UUID.randomUUID() + ".xml";
-		Files.write(Application.getTempFolderPath().resolve(filename), signedXml);
+		String filename = Util.getDocumentStore().store(signedXml, ".xml");
 
 		// Render the signature page (templates/xml-cod-signature-sign-codeh-result.html).
 		model.addAttribute("signerCert", signerCert);
@@ -6,13 +6,11 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import sample.Application;
+import sample.util.RestPkiMetrics;
 import sample.util.Util;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.util.UUID;
 
 @Controller
 @SuppressWarnings("Duplicates")
@@ -40,7 +38,8 @@ public class XmlElementSignatureController {
 		signatureStarter.setElementToSIgnId("NFe35141214314050000662550010001084271182362300");
 
 		// Set the signature policy.
-		signatureStarter.setSignaturePolicy(SignaturePolicy.NFePadraoNacional);
+		final SignaturePolicy signaturePolicy = SignaturePolicy.NFePadraoNacional;
+		signatureStarter.setSignaturePolicy(signaturePolicy);
 
 		// Set the security context to be used to determine trust in the certificate chain. We have
 		// encapsulated the security context choice on Util.java.
@@ -52,7 +51,12 @@ public class XmlElementSignatureController {
 		// (see file signature-form.js) and also to complete the signature after the form is
 		// submitted (see method post() below). This should not be mistaken with the API access
 		// token.
-		String token = signatureStarter.startWithWebPki();
+		String token = RestPkiMetrics.time("xml.start", signaturePolicy, new RestPkiMetrics.Call<String>() {
+			@Override
+			public String execute() throws IOException, RestException {
+				return signatureStarter.startWithWebPki();
+			}
+		});
 
 		// The token acquired above can only be used for a single signature attempt. In order to
 		// retry the signature it is necessary to get a new token. This can be a problem if the user
@@ -88,7 +92,13 @@ public class XmlElementSignatureController {
 
 		// Call the finish() method, which finalizes the signature process and returns the signed
 		// XML's bytes.
-		byte[] signedXml = signatureFinisher.finish();
+		byte[] signedXml = RestPkiMetrics.time("xml.finish", new RestPkiMetrics.Call<byte[]>() {
+			@Override
+			public byte[] execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
+		RestPkiMetrics.recordPayloadSize("xml.finish", "download", signedXml.length);
 
 		// Get information about the certificate used by the user to sign the file. This method must
 		// only be called after calling the finish() method.
@@ -98,8 +108,7 @@ public class XmlElementSignatureController {
 		// purposes, we'll store the XML on a temporary folder and return to the page an identifier
 		// that can be used to download it.
 
-		String filename = UUID.randomUUID() + ".xml";
-		Files.write(Application.getTempFolderPath().resolve(filename), signedXml);
+		String filename = Util.getDocumentStore().store(signedXml, ".xml");
 
 		// Render the signature page (templates/xml-signature-info.html).
 		model.addAttribute("signerCert", signerCert);
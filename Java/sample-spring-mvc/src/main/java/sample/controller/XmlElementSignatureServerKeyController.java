@@ -6,16 +6,14 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import sample.Application;
+import sample.util.RestPkiMetrics;
+import sample.util.ServerKeySigner;
 import sample.util.Util;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
-import java.security.Signature;
 import java.security.cert.Certificate;
-import java.util.UUID;
 
 @Controller
 public class XmlElementSignatureServerKeyController {
@@ -48,7 +46,8 @@ public class XmlElementSignatureServerKeyController {
 		signatureStarter.setElementToSIgnId("NFe35141214314050000662550010001084271182362300");
 
 		// Set the signature policy.
-		signatureStarter.setSignaturePolicy(SignaturePolicy.NFePadraoNacional);
+		final SignaturePolicy signaturePolicy = SignaturePolicy.NFePadraoNacional;
+		signatureStarter.setSignaturePolicy(signaturePolicy);
 
 		// Set the security context to be used to determine trust in the certificate chain. We have
 		// encapsulated the security context choice on Util.java.
@@ -56,7 +55,12 @@ public class XmlElementSignatureServerKeyController {
 
 		// Call the start() method, which initiates the signature. This yields the parameters for the
 		// signature using the certificate.
-		ClientSideSignatureInstructions sigInstructions = signatureStarter.start();
+		ClientSideSignatureInstructions sigInstructions = RestPkiMetrics.time("xml.start", signaturePolicy, new RestPkiMetrics.Call<ClientSideSignatureInstructions>() {
+			@Override
+			public ClientSideSignatureInstructions execute() throws IOException, RestException {
+				return signatureStarter.start();
+			}
+		});
 
 		// Get the key form a PKCS#12 file.
 		PrivateKey pkey = (PrivateKey) Util.getSampleKeyFromPKCS12();
@@ -64,21 +68,14 @@ public class XmlElementSignatureServerKeyController {
 		// Alternative option: Get the key form Microsoft CryptoAPI.
 		//PrivateKey pkey = (PrivateKey) Util.getSampleKeyFromMSCAPI();
 
-		// Initialize the signature using the parameters returned by REST PKI with the signer's key.
-		Signature signature = Signature.getInstance("NONEwithRSA");
+		// Perform the signature using the parameters returned by REST PKI with the signer's key.
 		// Note: Differently from PAdES and CAdES signatures, REST PKI provides the hash to be signed
-		// instead of the data binary. For this solution, we instantiate the Signature class
-		// informing to not use any hash function "NONEwithRSA" before performing the signature.
-		signature.initSign(pkey);
-		// Following the RSA standards (RFC 3447), we pad the ASN.1 DigestInfo object DER-encoded,
-		// related to digest algorithm object on the signature. It should be padded BEFORE the
-		// "toSignHash" content.
-		signature.update(sigInstructions.getEncodedDigestInfo());
-		// Set the toSignHash, provided by REST PKI.
-		byte[] toSignHash = sigInstructions.getToSignHashRaw();
-		signature.update(toSignHash, 0, toSignHash.length);
-		// Perform the signature.
-		byte[] sig = signature.sign();
+		// instead of the data binary. For this solution, ServerKeySigner.signHash() uses the
+		// "NONEwithRSA" algorithm, which does not apply any hash function before performing the
+		// signature. Following the RSA standards (RFC 3447), the ASN.1 DigestInfo object
+		// DER-encoded, related to digest algorithm object on the signature, is padded BEFORE the
+		// "toSignHash" content, provided by REST PKI.
+		byte[] sig = ServerKeySigner.signHash(pkey, sigInstructions.getEncodedDigestInfo(), sigInstructions.getToSignHashRaw());
 
 		// Instantiate the XmlSignatureFinisher class, responsible for completing the signature
 		// process.
@@ -94,7 +91,13 @@ public class XmlElementSignatureServerKeyController {
 
 		// Call the finish() method, which finalizes the signature process and returns the signed
 		// XML's bytes.
-		byte[] signedXml = signatureFinisher.finish();
+		byte[] signedXml = RestPkiMetrics.time("xml.finish", new RestPkiMetrics.Call<byte[]>() {
+			@Override
+			public byte[] execute() throws IOException, RestException {
+				return signatureFinisher.finish();
+			}
+		});
+		RestPkiMetrics.recordPayloadSize("xml.finish", "download", signedXml.length);
 
 		// Get information about the certificate used by the user to sign the file. This method must
 		// only be called after calling the finish() method.
@@ -104,8 +107,7 @@ public class XmlElementSignatureServerKeyController {
 		// purposes, we'll store the XML on a temporary folder and return to the page an identifier
 		// that can be used to download it.
 
-		String filename = UUID.randomUUID() + ".xml";
-		Files.write(Application.getTempFolderPath().resolve(filename), signedXml);
+		String filename = Util.getDocumentStore().store(signedXml, ".xml");
 
 		// Render the signature page (templates/xml-signature-info.html).
 		model.addAttribute("signerCert", signerCert);
@@ -0,0 +1,141 @@
+package sample.util;
+
+import com.lacunasoftware.restpki.BlobReference;
+import com.lacunasoftware.restpki.RestException;
+import sample.Application;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the files uploaded to REST PKI (see RestPkiClient.uploadFile()).
+ * <p>
+ * Passing a path to a signature starter or explorer transfers the whole file to REST PKI on every
+ * operation. When the same document is validated, marked and co-signed, this means sending the
+ * same bytes several times. Instead, the file is uploaded once and the resulting BlobReference is
+ * reused on the following operations. Entries are keyed by the file's path, size and modification
+ * time, so a lookup never reads the file, and a file that is changed is uploaded again.
+ * <p>
+ * Blobs are temporary on REST PKI, so each reference is reused only for the time set on the
+ * property restpki.blobTtlMinutes, after which the file is uploaded again. If REST PKI discards a
+ * blob earlier, the operation that used it fails with "blob not found": operations performed with
+ * use() are then retried once with a fresh upload.
+ */
+public class BlobCache {
+
+	private static final int maxEntries = 1000;
+	private static final long defaultTtlMinutes = 10;
+
+	// Entries in least-recently-used order (the eldest entry is removed once the map is full).
+	private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	/**
+	 * An operation on REST PKI that takes an uploaded file (for instance, the start of a signature
+	 * of that file).
+	 */
+	public interface Operation<T> {
+		T execute(BlobReference blob) throws IOException, RestException;
+	}
+
+	/**
+	 * Returns a reference to the given file's content on REST PKI, uploading the file if it was
+	 * not uploaded recently.
+	 */
+	public static BlobReference get(Path file) throws IOException, RestException {
+		String key = getKey(file);
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (entry.expiresAt > System.currentTimeMillis()) {
+					return entry.blob;
+				}
+				entries.remove(key);
+			}
+		}
+		// The upload is done outside the lock, so that uploads of different files don't wait for
+		// each other. If two requests upload the same file at the same time, both uploads succeed
+		// and the last one is kept. The file is streamed to REST PKI, it is never loaded into
+		// memory as a whole.
+		final long size = Files.size(file);
+		final InputStream stream = Files.newInputStream(file);
+		BlobReference blob;
+		try {
+			blob = RestPkiMetrics.time("upload", new RestPkiMetrics.Call<BlobReference>() {
+				@Override
+				public BlobReference execute() throws IOException, RestException {
+					return Util.getRestPkiClient().uploadFile(stream);
+				}
+			});
+		} finally {
+			stream.close();
+		}
+		RestPkiMetrics.recordPayloadSize("upload", "upload", size);
+		long expiresAt = System.currentTimeMillis() + getTtlMillis();
+		synchronized (entries) {
+			entries.put(key, new Entry(blob, expiresAt));
+		}
+		return blob;
+	}
+
+	/**
+	 * Performs the given operation with a reference to the given file's content on REST PKI (see
+	 * get()). If REST PKI no longer has the blob, the cached reference is discarded, the file is
+	 * uploaded again and the operation is retried once.
+	 */
+	public static <T> T use(Path file, Operation<T> operation) throws IOException, RestException {
+		try {
+			return operation.execute(get(file));
+		} catch (RestException e) {
+			if (!isBlobNotFound(e)) {
+				throw e;
+			}
+			invalidate(file);
+			return operation.execute(get(file));
+		}
+	}
+
+	/**
+	 * Discards the cached reference to the given file's content, if any.
+	 */
+	public static void invalidate(Path file) throws IOException {
+		String key = getKey(file);
+		synchronized (entries) {
+			entries.remove(key);
+		}
+	}
+
+	// REST PKI reports a blob that no longer exists with the error code "BlobNotFound", which the
+	// client includes on the exception's message.
+	private static boolean isBlobNotFound(RestException e) {
+		return e.getMessage() != null && e.getMessage().contains("BlobNotFound");
+	}
+
+	private static String getKey(Path file) throws IOException {
+		return String.format("%s|%d|%d", file.toAbsolutePath(), Files.size(file), Files.getLastModifiedTime(file).toMillis());
+	}
+	private static long getTtlMillis() {
+		String value = Application.environment.getProperty("restpki.blobTtlMinutes");
+		long minutes = (value != null && value.length() > 0) ? Long.parseLong(value) : defaultTtlMinutes;
+		return minutes * 60 * 1000;
+	}
+
+	private static class Entry {
+
+		private final BlobReference blob;
+		private final long expiresAt;
+
+		Entry(BlobReference blob, long expiresAt) {
+			this.blob = blob;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package sample.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Document store which keeps each document on a local folder under the SHA-256 hash of its
+ * content.
+ * <p>
+ * The ID of a document is the hex-encoded hash followed by the extension given when storing it
+ * (for instance, "3a7bd3e2...c1.pdf"). Storing the same content twice yields the same ID and keeps a
+ * single copy on disk, which is common on the samples since the same sample document is signed over
+ * and over. Files are spread over two levels of subfolders named after the first characters of the
+ * hash (objects/3a/7b/3a7bd3e2...c1.pdf), so that no single folder grows to hold every document.
+ * <p>
+ * Content is first written to the "tmp" folder and then moved to its final location, so a
+ * partially written document is never visible under its ID. The size and creation time of each
+ * document are appended to an index file, flushed to disk, and read back into memory on startup (as
+ * done by FileVerificationCodeStore), so getInfo() and exists() never touch the disk. Entries of
+ * evicted documents are dropped from the index when it is loaded.
+ * <p>
+ * Only the lookup of an existing document, the append to the index and evict() are done holding the
+ * store's lock. The move of the file and the flush of the index are done outside of it, the flush
+ * being shared by all entries appended since the last one (group commit), so concurrent stores
+ * don't wait for each other's disk operations.
+ */
+public class ContentAddressedDocumentStore implements DocumentStore {
+
+	private static final Pattern idPattern = Pattern.compile("[0-9a-f]{64}(\\.[A-Za-z0-9]{1,10})?");
+	private static final Pattern extensionPattern = Pattern.compile("\\.[A-Za-z0-9]{1,10}");
+
+	private final Path objectsFolder;
+	private final Path tempFolder;
+	private final ConcurrentMap<String, DocumentInfo> documents = new ConcurrentHashMap<String, DocumentInfo>();
+	private final FileChannel indexChannel;
+	private final Object lock = new Object();
+	private final Object syncLock = new Object();
+	private long syncedPosition; // guarded by syncLock
+
+	public ContentAddressedDocumentStore(Path root) throws IOException {
+		objectsFolder = root.resolve("objects");
+		tempFolder = root.resolve("tmp");
+		Files.createDirectories(objectsFolder);
+		Files.createDirectories(tempFolder);
+		deleteTempFiles();
+
+		Path indexPath = root.resolve("index.txt");
+		if (load(indexPath)) {
+			// Some entries were discarded, rewrite the index with the remaining ones only.
+			Path tempIndex = Files.createTempFile(tempFolder, "index", ".tmp");
+			StringBuilder lines = new StringBuilder();
+			for (DocumentInfo info : documents.values()) {
+				lines.append(formatEntry(info));
+			}
+			Files.write(tempIndex, lines.toString().getBytes(StandardCharsets.UTF_8));
+			Files.move(tempIndex, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	@Override
+	public String storeUpload(InputStream stream, String extension) throws IOException {
+		return store(stream, extension, true);
+	}
+
+	@Override
+	public String store(InputStream stream, String extension) throws IOException {
+		return store(stream, extension, false);
+	}
+
+	@Override
+	public String store(byte[] content, String extension) throws IOException {
+		return store(new ByteArrayInputStream(content), extension, false);
+	}
+
+	@Override
+	public String store(ContentWriter writer, String extension) throws IOException {
+		// The writer is given a path which doesn't exist yet, as it would be for a new document.
+		Path tempFile = tempFolder.resolve(UUID.randomUUID() + ".tmp");
+		try {
+			try {
+				writer.write(tempFile);
+			} catch (IOException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException(e);
+			}
+			return commit(tempFile, Util.computeSha256(tempFile), extension, false);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	@Override
+	public String store(Path file, String sha256, String extension) throws IOException {
+		// The file might be on another file system, in which case it is copied to the "tmp" folder,
+		// from where it can be moved atomically.
+		Path tempFile = tempFolder.resolve(UUID.randomUUID() + ".tmp");
+		try {
+			Files.move(file, tempFile);
+			return commit(tempFile, sha256, extension, false);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	private String store(InputStream stream, String extension, boolean upload) throws IOException {
+		// The content is hashed as it is written, so it is read only once.
+		Path tempFile = tempFolder.resolve(UUID.randomUUID() + ".tmp");
+		try {
+			String hash = Util.writeToFile(stream, tempFile);
+			return commit(tempFile, hash, extension, upload);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	@Override
+	public boolean exists(String documentId) {
+		return documentId != null && documents.containsKey(documentId);
+	}
+
+	@Override
+	public Path getPath(String documentId) throws IOException {
+		DocumentInfo info = getInfo(documentId);
+		if (info == null) {
+			throw new NoSuchFileException(String.valueOf(documentId));
+		}
+		info.setLastAccessedAt(System.currentTimeMillis());
+		return resolve(documentId);
+	}
+
+	@Override
+	public DocumentInfo getInfo(String documentId) {
+		return documentId != null ? documents.get(documentId) : null;
+	}
+
+	@Override
+	public Collection<DocumentInfo> getDocuments() {
+		return new ArrayList<DocumentInfo>(documents.values());
+	}
+
+	@Override
+	public boolean evict(String documentId, long lastAccessedBefore) throws IOException {
+		// Holding the store's lock, so that the document cannot be stored again (which would return
+		// its ID to a caller) while it is being deleted.
+		synchronized (lock) {
+			DocumentInfo info = getInfo(documentId);
+			if (info == null || info.getLastAccessedAt() >= lastAccessedBefore) {
+				return false;
+			}
+			try {
+				Files.deleteIfExists(resolve(documentId));
+			} catch (IOException e) {
+				// The file might be in use (on Windows, open files cannot be deleted). Keep it and
+				// try again later.
+				return false;
+			}
+			documents.remove(documentId);
+			return true;
+		}
+	}
+
+	/**
+	 * Moves a completely written temporary file to the location of its content, unless a document
+	 * with the same content is already stored.
+	 */
+	private String commit(Path tempFile, String hash, String extension, boolean upload) throws IOException {
+		String documentId = hash + sanitizeExtension(extension);
+		if (touch(documentId)) {
+			return documentId;
+		}
+
+		// The document is not in the index, so evict() cannot be deleting its file. If another
+		// thread is storing the same content, both move a file with that content to the same place.
+		long size = Files.size(tempFile);
+		Path target = resolve(documentId);
+		Files.createDirectories(target.getParent());
+		try {
+			Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (FileAlreadyExistsException e) {
+			// Left by a previous run without an index entry, or moved by a concurrent store of the
+			// same content.
+		}
+
+		DocumentInfo info = new DocumentInfo(documentId, size, System.currentTimeMillis(), upload);
+		ByteBuffer line = ByteBuffer.wrap(formatEntry(info).getBytes(StandardCharsets.UTF_8));
+		long entryEnd;
+		synchronized (lock) {
+			if (touch(documentId)) {
+				// Stored by a concurrent call while the file was being moved.
+				return documentId;
+			}
+			while (line.hasRemaining()) {
+				indexChannel.write(line);
+			}
+			entryEnd = indexChannel.position();
+		}
+		sync(entryEnd);
+
+		// Only made visible once its index entry is on disk, so its ID is never returned before
+		// that. A concurrent store of the same content might append an entry as well, which is
+		// harmless (the duplicate replaces the first one when the index is loaded).
+		documents.putIfAbsent(documentId, info);
+		return documentId;
+	}
+
+	/**
+	 * Updates the last access time of the given document, returning whether it is stored.
+	 */
+	private boolean touch(String documentId) {
+		synchronized (lock) {
+			DocumentInfo existing = documents.get(documentId);
+			if (existing == null) {
+				return false;
+			}
+			existing.setLastAccessedAt(System.currentTimeMillis());
+			return true;
+		}
+	}
+
+	/**
+	 * Flushes the index to disk, at least up to the given position. A single flush covers every entry
+	 * appended before it starts, so threads that appended while another one was flushing usually find
+	 * their entries already on disk.
+	 */
+	private void sync(long position) throws IOException {
+		synchronized (syncLock) {
+			if (syncedPosition >= position) {
+				return;
+			}
+			long end = indexChannel.position();
+			indexChannel.force(false);
+			syncedPosition = end;
+		}
+	}
+
+	private Path resolve(String documentId) {
+		if (!idPattern.matcher(documentId).matches()) {
+			throw new IllegalArgumentException("Invalid document ID");
+		}
+		return objectsFolder.resolve(documentId.substring(0, 2)).resolve(documentId.substring(2, 4)).resolve(documentId);
+	}
+
+	private static String sanitizeExtension(String extension) {
+		if (extension == null || !extensionPattern.matcher(extension).matches()) {
+			return "";
+		}
+		return extension.toLowerCase();
+	}
+
+	private static String formatEntry(DocumentInfo info) {
+		return info.getId() + "\t" + info.getSize() + "\t" + info.getCreatedAt() + "\t" + (info.isUpload() ? "upload" : "output") + "\n";
+	}
+
+	/**
+	 * Reads the existing entries into the in-memory index, returning whether any entry was
+	 * discarded (incomplete, malformed or whose file no longer exists).
+	 */
+	private boolean load(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return false;
+		}
+		byte[] content = Files.readAllBytes(path);
+		boolean discarded = false;
+		int lineStart = 0;
+		for (int i = 0; i < content.length; i++) {
+			if (content[i] == '\n') {
+				String[] fields = new String(content, lineStart, i - lineStart, StandardCharsets.UTF_8).split("\t");
+				DocumentInfo info = null;
+				if (fields.length == 4 && idPattern.matcher(fields[0]).matches() && Files.exists(resolve(fields[0]))) {
+					try {
+						info = new DocumentInfo(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3].equals("upload"));
+					} catch (NumberFormatException e) {
+						// Discard the malformed entry.
+					}
+				}
+				if (info != null) {
+					documents.put(info.getId(), info);
+				} else {
+					discarded = true;
+				}
+				lineStart = i + 1;
+			}
+		}
+		return discarded || lineStart < content.length;
+	}
+
+	private void deleteTempFiles() throws IOException {
+		// Temporary files left by writes interrupted by a crash.
+		DirectoryStream<Path> stream = Files.newDirectoryStream(tempFolder);
+		try {
+			for (Path file : stream) {
+				Files.deleteIfExists(file);
+			}
+		} finally {
+			stream.close();
+		}
+	}
+}
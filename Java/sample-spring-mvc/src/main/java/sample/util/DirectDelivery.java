@@ -0,0 +1,130 @@
+package sample.util;
+
+import com.lacunasoftware.restpki.RestException;
+import com.lacunasoftware.restpki.SignatureResult;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sample.Application;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * "Direct delivery" of signed documents: instead of storing the signed document and rendering a
+ * page with a link to download it (which makes the client issue a second request, on which the
+ * document is read back from storage), the signature-complete actions can send the document itself
+ * as the response.
+ * <p>
+ * The content is streamed from REST PKI to the client as it arrives, and a copy is written along
+ * the way to a temporary file while its SHA-256 hash is computed. Once the response is sent, that
+ * copy is moved into the document store on a background thread, with the hash already computed,
+ * so the content is never read back. The ID of the stored document is not sent to the client,
+ * since it is derived from the hash, which is only known once the whole body has been sent. If the
+ * client disconnects, the content is still read to the end and stored, since the signature has
+ * already been completed on REST PKI.
+ */
+public class DirectDelivery {
+
+	private static final Logger logger = LoggerFactory.getLogger(DirectDelivery.class);
+
+	private static final int bufferSize = 64 * 1024;
+
+	private static final ExecutorService storeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "direct-delivery-store");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Sends the signed document as the response (as a download named "signed" plus the given
+	 * extension) and stores it on the document store afterwards. The operation (for instance,
+	 * "pades.finish") is used to record the size of the document (see RestPkiMetrics).
+	 */
+	public static void send(SignatureResult signatureResult, String operation, final String extension, String contentType, HttpServletResponse response) throws IOException, RestException {
+
+		response.setContentType(contentType);
+		response.setHeader("Content-Disposition", String.format("attachment; filename=signed%s", extension));
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+
+		final Path tempFile = Files.createTempFile(Application.getTempFolderPath(), "direct", ".tmp");
+		long size = 0;
+		boolean read = false;
+		try {
+			InputStream inStream = signatureResult.openRead();
+			OutputStream fileStream = Files.newOutputStream(tempFile);
+			OutputStream outStream = response.getOutputStream();
+			try {
+				byte[] buffer = new byte[bufferSize];
+				int count;
+				while ((count = inStream.read(buffer)) != -1) {
+					fileStream.write(buffer, 0, count);
+					digest.update(buffer, 0, count);
+					size += count;
+					if (outStream != null) {
+						try {
+							outStream.write(buffer, 0, count);
+						} catch (IOException e) {
+							// The client is gone, keep reading to store the document.
+							logger.debug("Client disconnected during direct delivery", e);
+							outStream = null;
+						}
+					}
+				}
+			} finally {
+				inStream.close();
+				fileStream.close();
+			}
+			read = true;
+			if (outStream != null) {
+				try {
+					outStream.close();
+				} catch (IOException e) {
+					logger.debug("Client disconnected during direct delivery", e);
+				}
+			}
+		} finally {
+			if (!read) {
+				Files.deleteIfExists(tempFile);
+			}
+		}
+		RestPkiMetrics.recordPayloadSize(operation, "download", size);
+
+		final String hash = Hex.encodeHexString(digest.digest());
+		storeExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					String filename = Util.getDocumentStore().store(tempFile, hash, extension);
+					logger.info("Directly delivered document stored as {}", filename);
+				} catch (Exception e) {
+					logger.error("Error storing directly delivered document", e);
+				} finally {
+					try {
+						Files.deleteIfExists(tempFile);
+					} catch (IOException e) {
+						// Ignore, the file is on the temporary folder anyway.
+					}
+				}
+			}
+		});
+	}
+}
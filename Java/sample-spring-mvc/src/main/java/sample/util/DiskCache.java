@@ -0,0 +1,262 @@
+package sample.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache of generated files kept on disk, bounded by the total size of the files.
+ * <p>
+ * When the total size exceeds the limit, the least recently used files are deleted. If several
+ * requests ask for the same missing entry at the same time, the file is generated only once and
+ * all requests wait for that generation ("single-flight"). Entries not used for a while can also be
+ * deleted with evictUnusedSince(), or to bring the cache under a smaller size with evictToSize() (see
+ * StorageJanitor).
+ */
+public class DiskCache {
+
+	/**
+	 * Generates the content of a cache entry, writing it to the given path.
+	 */
+	public interface Generator {
+		void generate(Path target) throws Exception;
+	}
+
+	private final Path folder;
+	private final long maxSize;
+
+	private static class Entry {
+		final long size;
+		long lastAccessedAt;
+
+		Entry(long size, long lastAccessedAt) {
+			this.size = size;
+			this.lastAccessedAt = lastAccessedAt;
+		}
+	}
+
+	// Entries in least-recently-used order. Access is guarded by the map's lock.
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long totalSize;
+
+	private final ConcurrentMap<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<String, CompletableFuture<Void>>();
+
+	public DiskCache(Path folder, long maxSize) throws IOException {
+		this.folder = folder;
+		this.maxSize = maxSize;
+		Files.createDirectories(folder);
+		loadExistingEntries();
+	}
+
+	/**
+	 * Opens the entry with the given key for reading, generating it first if it's not on the
+	 * cache. The key must be valid as a file name. The caller must close the returned stream.
+	 */
+	public InputStream open(String key, Generator generator) throws IOException {
+		while (true) {
+			InputStream stream = tryOpen(key);
+			if (stream != null) {
+				return stream;
+			}
+			generate(key, generator);
+		}
+	}
+
+	private InputStream tryOpen(String key) throws IOException {
+		// The stream is opened while holding the lock, so that the entry cannot be evicted
+		// between the lookup and the opening. Once opened, the stream stays readable even if the
+		// entry is evicted afterwards.
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			try {
+				InputStream stream = Files.newInputStream(folder.resolve(key));
+				entry.lastAccessedAt = System.currentTimeMillis();
+				return stream;
+			} catch (NoSuchFileException e) {
+				// Deleted from outside the cache.
+				totalSize -= entries.remove(key).size;
+				return null;
+			}
+		}
+	}
+
+	private void generate(String key, Generator generator) throws IOException {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		CompletableFuture<Void> existing = inFlight.putIfAbsent(key, future);
+		if (existing != null) {
+			// Someone else is generating this entry, wait for it.
+			try {
+				existing.get();
+				return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				throw rethrow(e.getCause());
+			}
+		}
+		try {
+			Path tempFile = Files.createTempFile(folder, key, ".tmp");
+			try {
+				generator.generate(tempFile);
+				Path target = folder.resolve(key);
+				Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				add(key, Files.size(target));
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+			future.complete(null);
+		} catch (Exception e) {
+			future.completeExceptionally(e);
+			throw rethrow(e);
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	private void add(String key, long size) {
+		synchronized (entries) {
+			Entry previous = entries.put(key, new Entry(size, System.currentTimeMillis()));
+			if (previous != null) {
+				totalSize -= previous.size;
+			}
+			totalSize += size;
+			evict(key, maxSize);
+		}
+	}
+
+	// Deletes the least recently used entries (except the given one) until the total size is within
+	// the given limit, returning the number of bytes reclaimed. Must be called while holding the lock.
+	private long evict(String keep, long limit) {
+		long reclaimed = 0;
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (totalSize > limit && iterator.hasNext()) {
+			Map.Entry<String, Entry> entry = iterator.next();
+			if (entry.getKey().equals(keep)) {
+				continue;
+			}
+			try {
+				Files.deleteIfExists(folder.resolve(entry.getKey()));
+			} catch (IOException e) {
+				// The file might be in use (on Windows, open files cannot be deleted). Keep it and
+				// try again on the next eviction.
+				continue;
+			}
+			totalSize -= entry.getValue().size;
+			reclaimed += entry.getValue().size;
+			iterator.remove();
+		}
+		return reclaimed;
+	}
+
+	/**
+	 * Returns the total size of the entries, in bytes.
+	 */
+	public long getTotalSize() {
+		synchronized (entries) {
+			return totalSize;
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the total size is within the given size,
+	 * returning the number of bytes reclaimed.
+	 */
+	public long evictToSize(long size) {
+		synchronized (entries) {
+			return evict(null, size);
+		}
+	}
+
+	/**
+	 * Deletes the entries which were not used since the given time (in milliseconds since the
+	 * epoch), returning the number of bytes reclaimed.
+	 */
+	public long evictUnusedSince(long time) {
+		long reclaimed = 0;
+		synchronized (entries) {
+			// The entries are in least-recently-used order, so the scan stops on the first entry used
+			// after the given time.
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Entry> entry = iterator.next();
+				if (entry.getValue().lastAccessedAt >= time) {
+					break;
+				}
+				try {
+					Files.deleteIfExists(folder.resolve(entry.getKey()));
+				} catch (IOException e) {
+					continue;
+				}
+				totalSize -= entry.getValue().size;
+				reclaimed += entry.getValue().size;
+				iterator.remove();
+			}
+		}
+		return reclaimed;
+	}
+
+	private void loadExistingEntries() throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(folder);
+		try {
+			for (Path file : stream) {
+				if (file.getFileName().toString().endsWith(".tmp")) {
+					Files.deleteIfExists(file);
+				} else {
+					files.add(file);
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		// Register the files from the oldest to the newest modification, so that the oldest files
+		// are the first to be evicted.
+		Collections.sort(files, new Comparator<Path>() {
+			@Override
+			public int compare(Path a, Path b) {
+				try {
+					return Files.getLastModifiedTime(a).compareTo(Files.getLastModifiedTime(b));
+				} catch (IOException e) {
+					return 0;
+				}
+			}
+		});
+		synchronized (entries) {
+			for (Path file : files) {
+				long size = Files.size(file);
+				entries.put(file.getFileName().toString(), new Entry(size, Files.getLastModifiedTime(file).toMillis()));
+				totalSize += size;
+			}
+			evict(null, maxSize);
+		}
+	}
+
+	private static IOException rethrow(Throwable e) {
+		if (e instanceof IOException) {
+			return (IOException) e;
+		}
+		if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		}
+		return new IOException(e);
+	}
+}
@@ -0,0 +1,137 @@
+package sample.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Storage of the documents handled by the samples (uploaded files and signed documents).
+ * <p>
+ * Documents are identified by a string ID which can be used as a file name (it is passed on URLs,
+ * for instance as the "userfile" argument, and used on the /files/{filename} action). Documents
+ * are never modified once stored, but might be deleted when no longer used (see StorageJanitor).
+ * <p>
+ * >>>>> NOTICE <<<<<
+ * In your application, documents would typically be stored on your database or on a blob storage
+ * service. The samples use ContentAddressedDocumentStore, which keeps the documents on a local
+ * folder (see Util.getDocumentStore()).
+ */
+public interface DocumentStore {
+
+	/**
+	 * Writes the content of a document to the given path (for instance, SignatureResult.writeToFile).
+	 */
+	interface ContentWriter {
+		void write(Path target) throws Exception;
+	}
+
+	/**
+	 * Stores a file uploaded by the user, read from the given stream, returning the ID of the
+	 * document. The extension (for instance, ".pdf") is kept on the ID.
+	 */
+	String storeUpload(InputStream stream, String extension) throws IOException;
+
+	/**
+	 * Stores the content read from the given stream, returning the ID of the document.
+	 */
+	String store(InputStream stream, String extension) throws IOException;
+
+	/**
+	 * Stores the given content, returning the ID of the document.
+	 */
+	String store(byte[] content, String extension) throws IOException;
+
+	/**
+	 * Stores the content written by the given writer, returning the ID of the document.
+	 */
+	String store(ContentWriter writer, String extension) throws IOException;
+
+	/**
+	 * Stores the given file, whose content has the given hex-encoded SHA-256 hash, returning the ID
+	 * of the document. The file is moved into the store, so the content is not read again.
+	 */
+	String store(Path file, String sha256, String extension) throws IOException;
+
+	/**
+	 * Returns whether a document with the given ID exists.
+	 */
+	boolean exists(String documentId);
+
+	/**
+	 * Returns the path of the file with the content of the given document, which must not be
+	 * modified. Throws NoSuchFileException if the document does not exist.
+	 */
+	Path getPath(String documentId) throws IOException;
+
+	/**
+	 * Returns the metadata of the given document, or null if the document does not exist.
+	 */
+	DocumentInfo getInfo(String documentId);
+
+	/**
+	 * Returns the metadata of all stored documents.
+	 */
+	Collection<DocumentInfo> getDocuments();
+
+	/**
+	 * Deletes the given document, unless it was accessed (stored again or located with getPath())
+	 * at or after the given time. Returns whether the document was deleted.
+	 */
+	boolean evict(String documentId, long lastAccessedBefore) throws IOException;
+
+	/**
+	 * Metadata of a stored document.
+	 */
+	class DocumentInfo {
+
+		private final String id;
+		private final long size;
+		private final long createdAt;
+		private final boolean upload;
+		private volatile long lastAccessedAt;
+
+		public DocumentInfo(String id, long size, long createdAt, boolean upload) {
+			this.id = id;
+			this.size = size;
+			this.createdAt = createdAt;
+			this.upload = upload;
+			this.lastAccessedAt = createdAt;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Time when the document was first stored, in milliseconds since the epoch.
+		 */
+		public long getCreatedAt() {
+			return createdAt;
+		}
+
+		/**
+		 * Whether the document was uploaded by the user (as opposed to produced by the samples, such
+		 * as a signed document).
+		 */
+		public boolean isUpload() {
+			return upload;
+		}
+
+		/**
+		 * Time when the document was last stored or located, in milliseconds since the epoch. This
+		 * time is kept in memory only, after a restart it starts over from the creation time.
+		 */
+		public long getLastAccessedAt() {
+			return lastAccessedAt;
+		}
+
+		void setLastAccessedAt(long lastAccessedAt) {
+			this.lastAccessedAt = lastAccessedAt;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package sample.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Verification code store backed by an append-only file.
+ * <p>
+ * Each association is appended to the file as a "fileId TAB code" line and flushed to disk before
+ * setVerificationCode() returns, so registered codes survive a crash. On startup, the file is read
+ * back into two in-memory indexes (document to code and code to document), so both lookups are
+ * O(1) and never touch the disk. A line left incomplete by a crash is discarded. A line with an
+ * empty code records the removal of the document's code. If the file has lines which no longer
+ * hold an association (removals, replaced codes or an incomplete line), it is rewritten on startup
+ * with the current associations only, so it doesn't grow indefinitely.
+ */
+public class FileVerificationCodeStore implements VerificationCodeStore {
+
+	private final ConcurrentMap<String, String> codesByFileId = new ConcurrentHashMap<String, String>();
+	private final ConcurrentMap<String, String> fileIdsByCode = new ConcurrentHashMap<String, String>();
+	private final FileChannel channel;
+
+	public FileVerificationCodeStore(Path path) throws IOException {
+		if (load(path)) {
+			// Some lines were discarded, rewrite the file with the current associations only.
+			Path tempFile = Files.createTempFile(path.toAbsolutePath().getParent(), "codes", ".tmp");
+			StringBuilder lines = new StringBuilder();
+			for (Map.Entry<String, String> entry : codesByFileId.entrySet()) {
+				lines.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+			}
+			Files.write(tempFile, lines.toString().getBytes(StandardCharsets.UTF_8));
+			Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	@Override
+	public String getVerificationCode(String fileId) {
+		return codesByFileId.get(fileId);
+	}
+
+	@Override
+	public void setVerificationCode(String fileId, String code) throws IOException {
+		if (code.length() == 0) {
+			throw new IllegalArgumentException("Invalid verification code");
+		}
+		// Writes are serialized so that lines are never interleaved.
+		synchronized (channel) {
+			append(fileId, code);
+		}
+	}
+
+	@Override
+	public String getOrCreateVerificationCode(String fileId, Supplier<String> generator) throws IOException {
+		String code = codesByFileId.get(fileId);
+		if (code != null) {
+			return code;
+		}
+		// The check is repeated while holding the lock, so that concurrent calls for the same
+		// document register a single code.
+		synchronized (channel) {
+			code = codesByFileId.get(fileId);
+			if (code == null) {
+				// A generated code that is already taken by another document is discarded.
+				do {
+					code = generator.get();
+				} while (fileIdsByCode.containsKey(code));
+				append(fileId, code);
+			}
+			return code;
+		}
+	}
+
+	@Override
+	public void removeVerificationCode(String fileId) throws IOException {
+		synchronized (channel) {
+			if (codesByFileId.containsKey(fileId)) {
+				append(fileId, "");
+			}
+		}
+	}
+
+	@Override
+	public String lookupVerificationCode(String code) {
+		if (code == null || code.length() == 0) {
+			return null;
+		}
+		return fileIdsByCode.get(code);
+	}
+
+	/**
+	 * Appends an association to the file and updates the indexes once the line is safely on disk.
+	 * Must be called while holding the lock on the channel.
+	 */
+	private void append(String fileId, String code) throws IOException {
+		if (fileId.indexOf('\t') >= 0 || fileId.indexOf('\n') >= 0 || code.indexOf('\t') >= 0 || code.indexOf('\n') >= 0) {
+			throw new IllegalArgumentException("Invalid file ID or verification code");
+		}
+		ByteBuffer line = ByteBuffer.wrap((fileId + "\t" + code + "\n").getBytes(StandardCharsets.UTF_8));
+		while (line.hasRemaining()) {
+			channel.write(line);
+		}
+		channel.force(false);
+		index(fileId, code);
+	}
+
+	private void index(String fileId, String code) {
+		// An empty code removes the association.
+		String previousCode = code.length() > 0 ? codesByFileId.put(fileId, code) : codesByFileId.remove(fileId);
+		if (previousCode != null && !previousCode.equals(code)) {
+			fileIdsByCode.remove(previousCode, fileId);
+		}
+		if (code.length() > 0) {
+			fileIdsByCode.put(code, fileId);
+		}
+	}
+
+	/**
+	 * Reads the existing associations into the indexes, returning whether any line was discarded,
+	 * that is, whether the file has more lines than current associations.
+	 */
+	private boolean load(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return false;
+		}
+		byte[] content = Files.readAllBytes(path);
+		int lineStart = 0;
+		int lineCount = 0;
+		for (int i = 0; i < content.length; i++) {
+			if (content[i] == '\n') {
+				String line = new String(content, lineStart, i - lineStart, StandardCharsets.UTF_8);
+				int tab = line.indexOf('\t');
+				if (tab > 0) {
+					index(line.substring(0, tab), line.substring(tab + 1));
+				}
+				lineStart = i + 1;
+				lineCount++;
+			}
+		}
+		return lineStart < content.length || lineCount > codesByFileId.size();
+	}
+}
@@ -0,0 +1,168 @@
+package sample.util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Cache of the key material (private key and certificate chain) read from PKCS#12 files.
+ * <p>
+ * Opening a PKCS#12 file involves decrypting its contents with the password, which is expensive.
+ * Since the server-key samples use the same key on every request, each key entry is loaded only
+ * once and kept in memory. The file's modification time is checked periodically and the entry is
+ * reloaded if the file changes.
+ * <p>
+ * The number of loads and of cache hits are exported through Micrometer as the counters
+ * "keystore.cache.loads" and "keystore.cache.hits".
+ */
+public class KeyStoreCache {
+
+	// Minimum interval between checks of the file's modification time.
+	private static final long modificationCheckIntervalMillis = 5000;
+
+	private static final ConcurrentMap<String, KeyEntry> entries = new ConcurrentHashMap<String, KeyEntry>();
+	private static final AtomicLong loadCount = new AtomicLong();
+	private static final AtomicLong hitCount = new AtomicLong();
+
+	static {
+		ToDoubleFunction<AtomicLong> countValue = new ToDoubleFunction<AtomicLong>() {
+			@Override
+			public double applyAsDouble(AtomicLong count) {
+				return count.get();
+			}
+		};
+		FunctionCounter.builder("keystore.cache.loads", loadCount, countValue)
+			.description("Number of times a PKCS#12 file was opened and decrypted")
+			.register(Metrics.globalRegistry);
+		FunctionCounter.builder("keystore.cache.hits", hitCount, countValue)
+			.description("Number of times a key entry was served from the cache")
+			.register(Metrics.globalRegistry);
+	}
+
+	/**
+	 * Returns the key entry with the given alias from the PKCS#12 file on the given classpath
+	 * location, loading it if necessary.
+	 */
+	public static KeyEntry get(String resourcePath, String alias, String password) throws IOException, GeneralSecurityException {
+		String cacheKey = resourcePath + "#" + alias;
+		Resource resource = new ClassPathResource(resourcePath);
+		// Fast path: the entry was checked recently enough. This only reads the entry, the check of
+		// the file itself is done below, while holding the lock.
+		KeyEntry entry = entries.get(cacheKey);
+		if (entry != null && !entry.isCheckDue()) {
+			hitCount.incrementAndGet();
+			return entry;
+		}
+		synchronized (KeyStoreCache.class) {
+			entry = entries.get(cacheKey);
+			if (entry != null && !entry.isCheckDue()) {
+				// Checked by another thread while this one waited for the lock.
+				hitCount.incrementAndGet();
+			} else if (entry != null && getLastModified(resource) == entry.lastModified) {
+				entry.lastChecked = System.currentTimeMillis();
+				hitCount.incrementAndGet();
+			} else {
+				KeyEntry oldEntry = entry;
+				entry = load(resource, alias, password);
+				entries.put(cacheKey, entry);
+				if (oldEntry != null) {
+					// The Signature instances pooled for the old key would never be used again.
+					ServerKeySigner.discard(oldEntry.getPrivateKey());
+				}
+			}
+			return entry;
+		}
+	}
+
+	private static KeyEntry load(Resource resource, String alias, String password) throws IOException, GeneralSecurityException {
+		long lastModified = getLastModified(resource);
+		KeyStore keyStore = KeyStore.getInstance("pkcs12");
+		InputStream fileStream = resource.getInputStream();
+		try {
+			keyStore.load(fileStream, password.toCharArray());
+		} finally {
+			fileStream.close();
+		}
+		PrivateKey privateKey = (PrivateKey) keyStore.getKey(alias, password.toCharArray());
+		Certificate[] chain = keyStore.getCertificateChain(alias);
+		if (privateKey == null || chain == null || chain.length == 0) {
+			throw new GeneralSecurityException("Key entry " + alias + " not found on " + resource.getDescription());
+		}
+		loadCount.incrementAndGet();
+		return new KeyEntry(privateKey, chain, lastModified);
+	}
+
+	private static long getLastModified(Resource resource) {
+		try {
+			return resource.lastModified();
+		} catch (IOException e) {
+			// The modification time is not available (for instance, inside some packagings), in
+			// which case the entry will never be considered stale.
+			return 0;
+		}
+	}
+
+	public static class KeyEntry {
+
+		private final PrivateKey privateKey;
+		private final Certificate[] chain;
+		private final byte[][] encodedChain;
+		private final long lastModified;
+		private volatile long lastChecked;
+
+		private KeyEntry(PrivateKey privateKey, Certificate[] chain, long lastModified) throws GeneralSecurityException {
+			this.privateKey = privateKey;
+			this.chain = chain;
+			this.encodedChain = new byte[chain.length][];
+			for (int i = 0; i < chain.length; i++) {
+				encodedChain[i] = chain[i].getEncoded();
+			}
+			this.lastModified = lastModified;
+			this.lastChecked = System.currentTimeMillis();
+		}
+
+		public PrivateKey getPrivateKey() {
+			return privateKey;
+		}
+
+		public Certificate getCertificate() {
+			return chain[0];
+		}
+
+		/**
+		 * Returns the DER encoding of the signer certificate. The array is shared and must not be
+		 * modified.
+		 */
+		public byte[] getEncodedCertificate() {
+			return encodedChain[0];
+		}
+
+		/**
+		 * Returns the DER encoding of each certificate on the chain, starting with the signer
+		 * certificate. The arrays are shared and must not be modified.
+		 */
+		public byte[][] getEncodedChain() {
+			return encodedChain;
+		}
+
+		/**
+		 * Whether the file's modification time should be checked again. Has no side effects, the
+		 * check itself is done by KeyStoreCache.get() while holding the lock.
+		 */
+		private boolean isCheckDue() {
+			return System.currentTimeMillis() - lastChecked >= modificationCheckIntervalMillis;
+		}
+	}
+}
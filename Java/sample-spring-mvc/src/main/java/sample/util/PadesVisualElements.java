@@ -43,8 +43,9 @@ public class PadesVisualElements {
 		visualRepresentation.setImage(image);
 
 		// Position of the visual representation. We get the footnote position preset and customize
-		// it.
-		PadesVisualAutoPositioning visualPositioning = PadesVisualPositioning.getFootnote(Util.getRestPkiClient());
+		// it. The preset is kept in a local cache (see PadesVisualPositioningPresets), which saves a
+		// round trip to REST PKI on every signature.
+		PadesVisualAutoPositioning visualPositioning = PadesVisualPositioningPresets.getFootnote();
 		visualPositioning.getContainer().setHeight(4.94);
 		visualPositioning.getSignatureRectangleSize().setWidth(8.0);
 		visualPositioning.getSignatureRectangleSize().setHeight(4.94);
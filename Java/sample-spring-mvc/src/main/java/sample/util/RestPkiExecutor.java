@@ -0,0 +1,71 @@
+package sample.util;
+
+import sample.Application;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared executor used to run calls to REST PKI concurrently (for instance, when starting or
+ * completing the signatures of a batch of documents on the server-side).
+ * <p>
+ * The number of calls made simultaneously is bounded by the property
+ * restpki.maxConcurrentCalls (see application.properties), so that a large batch does not open an
+ * unbounded number of connections to REST PKI.
+ * <p>
+ * When running on a JVM that supports virtual threads (Java 21 or later), the workers are virtual
+ * threads, which cost almost nothing while blocked waiting for REST PKI. This can be disabled with
+ * the property restpki.useVirtualThreads.
+ */
+public class RestPkiExecutor {
+
+	private static final int defaultMaxConcurrentCalls = 10;
+
+	private static volatile ExecutorService executor;
+
+	public static ExecutorService get() {
+		ExecutorService current = executor;
+		if (current == null) {
+			synchronized (RestPkiExecutor.class) {
+				current = executor;
+				if (current == null) {
+					current = Executors.newFixedThreadPool(getMaxConcurrentCalls(), createThreadFactory());
+					executor = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	private static int getMaxConcurrentCalls() {
+		String value = Application.environment.getProperty("restpki.maxConcurrentCalls");
+		if (value == null || value.length() == 0) {
+			return defaultMaxConcurrentCalls;
+		}
+		return Integer.parseInt(value);
+	}
+
+	private static ThreadFactory createThreadFactory() {
+		if (!"false".equalsIgnoreCase(Application.environment.getProperty("restpki.useVirtualThreads"))) {
+			ThreadFactory virtualThreadFactory = VirtualThreads.newThreadFactory("restpki-worker-");
+			if (virtualThreadFactory != null) {
+				return virtualThreadFactory;
+			}
+		}
+		return new WorkerThreadFactory();
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "restpki-worker-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package sample.util;
+
+import com.lacunasoftware.restpki.RestException;
+import com.lacunasoftware.restpki.SignaturePolicy;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing of the calls to REST PKI, exported through Micrometer (see the actuator endpoint
+ * /prometheus, served on the management port configured on application.properties).
+ * <p>
+ * Each call is recorded on the timer "restpki.calls", tagged with the operation (for instance,
+ * "pades.start" or "upload"), the name of the signature policy (when there is one, see
+ * getPolicyName()) and the outcome ("success" or the name of the exception). The sizes of the documents sent to and received from REST PKI are
+ * recorded on the distribution summary "restpki.payload.size". Comparing these timers with the
+ * timers of the HTTP requests ("http.server.requests") shows how much of each request is spent
+ * waiting for REST PKI and how much is local overhead.
+ */
+public class RestPkiMetrics {
+
+	/**
+	 * A call to REST PKI.
+	 */
+	public interface Call<T> {
+		T execute() throws IOException, RestException;
+	}
+
+	// Names of the signature policies already looked up (see getPolicyName()).
+	private static final ConcurrentMap<SignaturePolicy, String> policyNames = new ConcurrentHashMap<SignaturePolicy, String>();
+
+	/**
+	 * Performs the given call to REST PKI, made with the given signature policy, recording its
+	 * duration.
+	 */
+	public static <T> T time(String operation, SignaturePolicy policy, Call<T> call) throws IOException, RestException {
+		long start = System.nanoTime();
+		String outcome = "success";
+		try {
+			return call.execute();
+		} catch (Throwable e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			Timer.builder("restpki.calls")
+				.description("Calls to REST PKI")
+				.tag("operation", operation)
+				.tag("policy", getPolicyName(policy))
+				.tag("outcome", outcome)
+				.publishPercentileHistogram()
+				.register(Metrics.globalRegistry)
+				.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Performs the given call to REST PKI, which has no signature policy, recording its duration.
+	 */
+	public static <T> T time(String operation, Call<T> call) throws IOException, RestException {
+		return time(operation, null, call);
+	}
+
+	/**
+	 * Returns the name of the constant of the SignaturePolicy class which holds the given policy (for
+	 * instance, "PadesBasic"), so that the tag follows the policy actually set on the starter or
+	 * explorer. Policies which are not one of the constants are named after their ID.
+	 */
+	private static String getPolicyName(SignaturePolicy policy) {
+		if (policy == null) {
+			return "none";
+		}
+		String name = policyNames.get(policy);
+		if (name == null) {
+			name = policy.getId().toString();
+			for (Field field : SignaturePolicy.class.getFields()) {
+				try {
+					if (Modifier.isStatic(field.getModifiers()) && field.get(null) == policy) {
+						name = field.getName();
+						break;
+					}
+				} catch (IllegalAccessException e) {
+					// Public fields are always accessible.
+				}
+			}
+			policyNames.put(policy, name);
+		}
+		return name;
+	}
+
+	/**
+	 * Records the size of a document sent to REST PKI ("upload") or received from it ("download")
+	 * on the given operation.
+	 */
+	public static void recordPayloadSize(String operation, String direction, long size) {
+		DistributionSummary.builder("restpki.payload.size")
+			.description("Size of the documents exchanged with REST PKI")
+			.baseUnit("bytes")
+			.tag("operation", operation)
+			.tag("direction", direction)
+			.publishPercentileHistogram()
+			.register(Metrics.globalRegistry)
+			.record(size);
+	}
+}
@@ -0,0 +1,127 @@
+package sample.util;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Performs signatures with keys held by the server (see the server-key samples).
+ * <p>
+ * Obtaining a java.security.Signature instance and initializing it with a key has a cost that is
+ * significant when signing many documents. Since a Signature returns to its initialized state
+ * after each sign() call, instances are kept in pools (one per algorithm and key) and reused. A
+ * Signature is not thread-safe, so each instance is used by a single thread at a time.
+ * <p>
+ * The pools hold their keys, so they must not outlive them: KeyStoreCache discards the pools of a
+ * key when it reloads it (see discard()), and the number of pools is bounded for keys that don't
+ * come from the cache (for instance, a key obtained from Microsoft CryptoAPI on every request).
+ */
+public class ServerKeySigner {
+
+	// Maximum number of pools. When a new pool would exceed it, all pools are discarded.
+	private static final int maxPools = 16;
+
+	private static final ConcurrentMap<PoolKey, Queue<Signature>> pools = new ConcurrentHashMap<PoolKey, Queue<Signature>>();
+
+	/**
+	 * Signs the given data (for instance, the "to sign data" returned by REST PKI on the start of
+	 * a PAdES or CAdES signature) with the given algorithm and key.
+	 */
+	public static byte[] sign(String algorithm, PrivateKey key, byte[] data) throws GeneralSecurityException {
+		PoolKey poolKey = new PoolKey(algorithm, key);
+		Signature signature = borrow(poolKey);
+		// If the signature fails, the instance is not returned to the pool, since its state is
+		// unknown.
+		signature.update(data, 0, data.length);
+		byte[] result = signature.sign();
+		release(poolKey, signature);
+		return result;
+	}
+
+	/**
+	 * Signs a precomputed hash (for instance, the "to sign hash" returned by REST PKI on the start
+	 * of a XML signature) with an RSA key. Following the RSA standards (RFC 3447), the DER-encoded
+	 * DigestInfo, which identifies the digest algorithm, is signed along with the hash.
+	 */
+	public static byte[] signHash(PrivateKey key, byte[] encodedDigestInfo, byte[] hash) throws GeneralSecurityException {
+		PoolKey poolKey = new PoolKey("NONEwithRSA", key);
+		Signature signature = borrow(poolKey);
+		signature.update(encodedDigestInfo, 0, encodedDigestInfo.length);
+		signature.update(hash, 0, hash.length);
+		byte[] result = signature.sign();
+		release(poolKey, signature);
+		return result;
+	}
+
+	/**
+	 * Discards the pooled Signature instances of the given key, which is no longer used.
+	 */
+	public static void discard(PrivateKey key) {
+		Iterator<PoolKey> iterator = pools.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().key == key) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static Signature borrow(PoolKey poolKey) throws GeneralSecurityException {
+		Queue<Signature> pool = pools.get(poolKey);
+		if (pool != null) {
+			Signature signature = pool.poll();
+			if (signature != null) {
+				return signature;
+			}
+		}
+		Signature signature = Signature.getInstance(poolKey.algorithm);
+		signature.initSign(poolKey.key);
+		return signature;
+	}
+
+	private static void release(PoolKey poolKey, Signature signature) {
+		Queue<Signature> pool = pools.get(poolKey);
+		if (pool == null) {
+			if (pools.size() >= maxPools) {
+				pools.clear();
+			}
+			pool = new ConcurrentLinkedQueue<Signature>();
+			Queue<Signature> existing = pools.putIfAbsent(poolKey, pool);
+			if (existing != null) {
+				pool = existing;
+			}
+		}
+		pool.offer(signature);
+	}
+
+	private static class PoolKey {
+
+		private final String algorithm;
+		private final PrivateKey key;
+
+		PoolKey(String algorithm, PrivateKey key) {
+			this.algorithm = algorithm;
+			this.key = key;
+		}
+
+		// Keys are compared by identity: the key cache (see KeyStoreCache) always returns the same
+		// instance for a given key, and a reloaded key gets a pool of its own.
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof PoolKey)) {
+				return false;
+			}
+			PoolKey other = (PoolKey) o;
+			return algorithm.equals(other.algorithm) && key == other.key;
+		}
+
+		@Override
+		public int hashCode() {
+			return algorithm.hashCode() * 31 + System.identityHashCode(key);
+		}
+	}
+}
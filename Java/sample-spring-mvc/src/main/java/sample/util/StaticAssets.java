@@ -0,0 +1,77 @@
+package sample.util;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the small static files used by the samples (PDF stamp, ICP-Brasil logo, validation
+ * icons and sample documents).
+ * <p>
+ * Each file is read from the classpath only once and kept in memory. The methods on this class
+ * return the same shared array on every call, so callers MUST NOT modify the returned content.
+ */
+public class StaticAssets {
+
+	private static final Logger logger = LoggerFactory.getLogger(StaticAssets.class);
+
+	// Files loaded eagerly by load(). Other files under /static are loaded on first use.
+	private static final String[] preloadedAssets = {
+		"PdfStamp.png",
+		"icp-brasil.png",
+		"ok.png",
+		"not-ok.png",
+		"SampleDocument.xml",
+		"00.pdf", "01.pdf", "02.pdf", "03.pdf", "04.pdf",
+		"05.pdf", "06.pdf", "07.pdf", "08.pdf", "09.pdf"
+	};
+
+	private static final ConcurrentMap<String, byte[]> assets = new ConcurrentHashMap<String, byte[]>();
+
+	/**
+	 * Loads all known assets into memory and logs their sizes. This is called once on startup
+	 * (see Application.java).
+	 */
+	public static void load() throws IOException {
+		long total = 0;
+		StringBuilder report = new StringBuilder("Static assets loaded:");
+		for (String name : preloadedAssets) {
+			byte[] content = getContent(name);
+			total += content.length;
+			report.append(String.format("%n    %-20s %,10d bytes", name, content.length));
+		}
+		report.append(String.format("%n    %-20s %,10d bytes", "(total)", total));
+		logger.info(report.toString());
+	}
+
+	/**
+	 * Returns the content of the file /static/{name}. The returned array is shared and must not be
+	 * modified.
+	 */
+	public static byte[] getContent(String name) throws IOException {
+		byte[] content = assets.get(name);
+		if (content == null) {
+			content = read(name);
+			byte[] previous = assets.putIfAbsent(name, content);
+			if (previous != null) {
+				content = previous;
+			}
+		}
+		return content;
+	}
+
+	private static byte[] read(String name) throws IOException {
+		InputStream fileStream = new ClassPathResource("/static/" + name).getInputStream();
+		try {
+			return IOUtils.toByteArray(fileStream);
+		} finally {
+			fileStream.close();
+		}
+	}
+}
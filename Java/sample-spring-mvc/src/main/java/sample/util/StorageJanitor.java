@@ -0,0 +1,209 @@
+package sample.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sample.Application;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background task which deletes old files from the storage of the samples, so that the disk does
+ * not fill up.
+ * <p>
+ * Each kind of document (uploaded files and signed PDFs, CMSs and XMLs) is kept for a configurable
+ * time after it was last used (see the storageJanitor.* properties on application.properties).
+ * Documents with a verification code (see PrinterFriendlyVersionController) have their own
+ * retention period, by default unlimited, since the code printed on paper must keep leading to the
+ * document; when one of them is deleted, its code is removed as well. Disk caches, such as the one
+ * of printer-friendly versions, are registered with register() and have their unused entries
+ * deleted the same way.
+ * <p>
+ * Then, if the documents and the caches together still take more space than the configured quota,
+ * the least recently used cache entries are deleted first, since they can be generated again, and
+ * then the least recently used documents (except the ones with a verification code) until they
+ * fit.
+ * <p>
+ * The task runs on its own thread, never on the request path. The bytes reclaimed are recorded on
+ * the counter "storage.janitor.reclaimed", tagged with the kind of file.
+ */
+public class StorageJanitor {
+
+	private static final Logger logger = LoggerFactory.getLogger(StorageJanitor.class);
+
+	private static class RegisteredCache {
+		final String kind;
+		final DiskCache cache;
+		final long ttlMillis;
+
+		RegisteredCache(String kind, DiskCache cache, long ttlMillis) {
+			this.kind = kind;
+			this.cache = cache;
+			this.ttlMillis = ttlMillis;
+		}
+	}
+
+	private static final List<RegisteredCache> caches = new CopyOnWriteArrayList<RegisteredCache>();
+	private static ScheduledExecutorService scheduler;
+
+	/**
+	 * Schedules the periodic cleanup. Set the property storageJanitor.intervalMinutes to 0 to
+	 * disable it.
+	 */
+	public static synchronized void start() {
+		long intervalMinutes = getLongProperty("storageJanitor.intervalMinutes", 10);
+		if (scheduler != null || intervalMinutes <= 0) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "storage-janitor");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runOnce();
+				} catch (Throwable e) {
+					// An exception would cancel the next runs.
+					logger.error("Error cleaning up the storage", e);
+				}
+			}
+		}, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Registers a disk cache whose entries are deleted when not used for the time given by the
+	 * property storageJanitor.{kind}TtlMinutes (0 to keep them), and whose size counts toward the
+	 * quota.
+	 */
+	public static void register(String kind, DiskCache cache) {
+		long ttlMinutes = getLongProperty("storageJanitor." + kind + "TtlMinutes", 0);
+		caches.add(new RegisteredCache(kind, cache, TimeUnit.MINUTES.toMillis(ttlMinutes)));
+	}
+
+	/**
+	 * Performs a single cleanup.
+	 */
+	public static void runOnce() throws Exception {
+		long now = System.currentTimeMillis();
+		long reclaimed = 0;
+		DocumentStore store = Util.getDocumentStore();
+		VerificationCodeStore codeStore = Util.getVerificationCodeStore();
+
+		// Delete the documents kept for longer than the retention period of their kind. Documents
+		// with a verification code are kept apart, they are never deleted to meet the quota.
+		List<DocumentStore.DocumentInfo> remaining = new ArrayList<DocumentStore.DocumentInfo>();
+		long remainingSize = 0;
+		for (DocumentStore.DocumentInfo info : store.getDocuments()) {
+			boolean verified = codeStore.getVerificationCode(info.getId()) != null;
+			long ttlMinutes = getLongProperty("storageJanitor." + (verified ? "verified" : getKind(info)) + "TtlMinutes", 0);
+			long lastAccessedBefore = now - TimeUnit.MINUTES.toMillis(ttlMinutes);
+			if (ttlMinutes > 0 && info.getLastAccessedAt() < lastAccessedBefore && store.evict(info.getId(), lastAccessedBefore)) {
+				if (verified) {
+					codeStore.removeVerificationCode(info.getId());
+				}
+				recordReclaimed(getKind(info), info.getSize());
+				reclaimed += info.getSize();
+			} else {
+				if (!verified) {
+					remaining.add(info);
+				}
+				remainingSize += info.getSize();
+			}
+		}
+
+		long cachesSize = 0;
+		for (RegisteredCache registered : caches) {
+			if (registered.ttlMillis > 0) {
+				long cacheReclaimed = registered.cache.evictUnusedSince(now - registered.ttlMillis);
+				if (cacheReclaimed > 0) {
+					recordReclaimed(registered.kind, cacheReclaimed);
+					reclaimed += cacheReclaimed;
+				}
+			}
+			cachesSize += registered.cache.getTotalSize();
+		}
+
+		// If the remaining files still exceed the quota, delete the least recently used cache
+		// entries and then the least recently used documents. A document used since the scan is
+		// skipped.
+		long maxSize = getLongProperty("storageJanitor.maxSizeMb", 0) * 1024 * 1024;
+		if (maxSize > 0 && remainingSize + cachesSize > maxSize) {
+			for (RegisteredCache registered : caches) {
+				long excess = remainingSize + cachesSize - maxSize;
+				if (excess <= 0) {
+					break;
+				}
+				long cacheReclaimed = registered.cache.evictToSize(Math.max(0, registered.cache.getTotalSize() - excess));
+				if (cacheReclaimed > 0) {
+					recordReclaimed(registered.kind, cacheReclaimed);
+					reclaimed += cacheReclaimed;
+					cachesSize -= cacheReclaimed;
+				}
+			}
+		}
+		if (maxSize > 0 && remainingSize + cachesSize > maxSize) {
+			Collections.sort(remaining, new Comparator<DocumentStore.DocumentInfo>() {
+				@Override
+				public int compare(DocumentStore.DocumentInfo a, DocumentStore.DocumentInfo b) {
+					return Long.compare(a.getLastAccessedAt(), b.getLastAccessedAt());
+				}
+			});
+			for (DocumentStore.DocumentInfo info : remaining) {
+				if (remainingSize + cachesSize <= maxSize) {
+					break;
+				}
+				if (store.evict(info.getId(), now)) {
+					recordReclaimed(getKind(info), info.getSize());
+					reclaimed += info.getSize();
+					remainingSize -= info.getSize();
+				}
+			}
+		}
+
+		if (reclaimed > 0) {
+			logger.info("Storage cleanup reclaimed {} bytes in {} ms", reclaimed, System.currentTimeMillis() - now);
+		}
+	}
+
+	/**
+	 * Returns the kind of a document, which selects its retention period: "upload" for files
+	 * uploaded by the user, otherwise the extension of the document ("pdf", "p7s" or "xml").
+	 */
+	private static String getKind(DocumentStore.DocumentInfo info) {
+		if (info.isUpload()) {
+			return "upload";
+		}
+		int i = info.getId().lastIndexOf('.');
+		return i >= 0 ? info.getId().substring(i + 1) : "other";
+	}
+
+	private static void recordReclaimed(String kind, long bytes) {
+		Counter.builder("storage.janitor.reclaimed")
+			.description("Bytes deleted by the storage janitor")
+			.baseUnit("bytes")
+			.tag("kind", kind)
+			.register(Metrics.globalRegistry)
+			.increment(bytes);
+	}
+
+	private static long getLongProperty(String name, long defaultValue) {
+		String value = Application.environment.getProperty(name);
+		return (value != null && value.length() > 0) ? Long.parseLong(value) : defaultValue;
+	}
+}
@@ -0,0 +1,91 @@
+package sample.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Rate limiter using the "token bucket" algorithm, with one bucket per key (for instance, the
+ * client's IP address).
+ * <p>
+ * Each bucket holds at most "capacity" tokens and is refilled at a constant rate. Each limited
+ * operation consumes one token, and is refused once the bucket is empty. Buckets that are full
+ * are equivalent to buckets that don't exist, so they are discarded from time to time in order to
+ * keep the memory usage bounded by the number of recently active keys.
+ */
+public class TokenBucketLimiter {
+
+	private final double capacity;
+	private final double tokensPerMilli;
+	private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+	private volatile long lastCleanup = System.currentTimeMillis();
+
+	/**
+	 * @param capacity        Maximum number of tokens on each bucket (the number of operations
+	 *                        allowed in a burst)
+	 * @param tokensPerMinute Rate at which the buckets are refilled
+	 */
+	public TokenBucketLimiter(int capacity, int tokensPerMinute) {
+		this.capacity = capacity;
+		this.tokensPerMilli = tokensPerMinute / 60000.0;
+	}
+
+	/**
+	 * Consumes a token for the given key, returning false if the bucket is empty.
+	 */
+	public boolean tryConsume(String key) {
+		long now = System.currentTimeMillis();
+		cleanup(now);
+		Bucket bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = new Bucket(now);
+			Bucket existing = buckets.putIfAbsent(key, bucket);
+			if (existing != null) {
+				bucket = existing;
+			}
+		}
+		synchronized (bucket) {
+			bucket.refill(now);
+			if (bucket.tokens < 1) {
+				return false;
+			}
+			bucket.tokens -= 1;
+			return true;
+		}
+	}
+
+	private void cleanup(long now) {
+		// Full buckets are discarded at most once per minute.
+		if (now - lastCleanup < 60000) {
+			return;
+		}
+		lastCleanup = now;
+		Iterator<Map.Entry<String, Bucket>> iterator = buckets.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Bucket bucket = iterator.next().getValue();
+			synchronized (bucket) {
+				bucket.refill(now);
+				if (bucket.tokens >= capacity) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	private class Bucket {
+
+		private double tokens;
+		private long lastRefill;
+
+		Bucket(long now) {
+			this.tokens = capacity;
+			this.lastRefill = now;
+		}
+
+		void refill(long now) {
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerMilli);
+			lastRefill = now;
+		}
+	}
+}
@@ -3,25 +3,54 @@ package sample.util;
 import com.lacunasoftware.restpki.RestPkiClient;
 import com.lacunasoftware.restpki.SecurityContext;
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.codec.binary.Hex;
 import org.springframework.core.io.ClassPathResource;
-import org.springframework.core.io.Resource;
 import sample.Application;
 
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.*;
 import java.security.cert.Certificate;
 import java.util.*;
 
 public class Util {
 
+	// Size of the buffer used when reading or copying streams (see writeToFile()).
+	private static final int streamBufferSize = 64 * 1024;
+
+	private static volatile RestPkiClient restPkiClient;
+	private static volatile VerificationCodeStore verificationCodeStore;
+	private static volatile DocumentStore documentStore;
+
 	public static RestPkiClient getRestPkiClient() {
 
+		// The RestPkiClient holds no per-request state, so a single instance is shared by all
+		// controllers. This avoids re-reading the configuration on every call and lets the
+		// underlying HTTP connections to REST PKI be kept alive and reused between requests.
+		RestPkiClient client = restPkiClient;
+		if (client == null) {
+			synchronized (Util.class) {
+				client = restPkiClient;
+				if (client == null) {
+					client = createRestPkiClient();
+					restPkiClient = client;
+				}
+			}
+		}
+		return client;
+	}
+
+	private static RestPkiClient createRestPkiClient() {
+
 		String accessToken = Application.environment.getProperty("restpki.accessToken");
 
 		// Throw exception if token is not set (this check is here just for the sake of newcomers,
@@ -61,9 +90,58 @@ public class Util {
 			//endpoint = "https://pki.rest/"; // <--- USE THIS IN PRODUCTION!
 		}
 
+		// ------------------------------------------------------------------------------------------
+		// The REST PKI client uses the JVM's HttpURLConnection, which keeps idle connections alive
+		// and reuses them (avoiding a new TCP connection and TLS handshake per call). Below we set
+		// how many idle connections per host are kept in the JVM's keep-alive cache. This must be
+		// done before the first connection is opened.
+		// ------------------------------------------------------------------------------------------
+		System.setProperty("http.keepAlive", "true");
+		String maxConnections = Application.environment.getProperty("restpki.maxConnections");
+		if (maxConnections != null && maxConnections.length() > 0) {
+			System.setProperty("http.maxConnections", maxConnections);
+		}
+
 		return new RestPkiClient(endpoint, accessToken, proxy);
 	}
 
+	public static VerificationCodeStore getVerificationCodeStore() throws IOException {
+		VerificationCodeStore store = verificationCodeStore;
+		if (store == null) {
+			synchronized (Util.class) {
+				store = verificationCodeStore;
+				if (store == null) {
+					// By default, the verification codes are kept on a temporary folder of their own. They
+					// must never be kept on the folder of the documents, since that folder is served by
+					// /files. Set the property verificationCodes.file to keep them on a permanent location.
+					String file = Application.environment.getProperty("verificationCodes.file");
+					Path path = (file != null && file.length() > 0) ? Paths.get(file) : Files.createTempDirectory("RestPkiSampleCodes").resolve("verification-codes.txt");
+					store = new FileVerificationCodeStore(path);
+					verificationCodeStore = store;
+				}
+			}
+		}
+		return store;
+	}
+
+	public static DocumentStore getDocumentStore() throws IOException {
+		DocumentStore store = documentStore;
+		if (store == null) {
+			synchronized (Util.class) {
+				store = documentStore;
+				if (store == null) {
+					// By default, the documents are kept on the temporary folder. Set the property
+					// documentStore.folder to keep them on a permanent location.
+					String folder = Application.environment.getProperty("documentStore.folder");
+					Path path = (folder != null && folder.length() > 0) ? Paths.get(folder) : Application.getTempFolderPath().resolve("documents");
+					store = new ContentAddressedDocumentStore(path);
+					documentStore = store;
+				}
+			}
+		}
+		return store;
+	}
+
 	public static SecurityContext getSecurityContextId() {
 
 		if (Arrays.asList(Application.environment.getActiveProfiles()).contains("development")) {
@@ -100,14 +178,11 @@ public class Util {
 		return new ClassPathResource("/static/SampleDocument.pdf").getFile().toPath();
 	}
 
+	// The methods below that return the content of static files use the StaticAssets registry,
+	// which reads each file only once. The returned arrays are shared and must not be modified.
+
 	public static byte[] getSampleXml() throws IOException {
-		Resource resource = new ClassPathResource("/static/SampleDocument.xml");
-		InputStream fileStream = resource.getInputStream();
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		org.apache.commons.io.IOUtils.copy(fileStream, buffer);
-		fileStream.close();
-		buffer.flush();
-		return buffer.toByteArray();
+		return StaticAssets.getContent("SampleDocument.xml");
 	}
 
 	public static Path getSampleXmlPath() throws IOException {
@@ -119,13 +194,7 @@ public class Util {
 	}
 
 	public static byte[] getBatchDocContent(int id) throws IOException {
-		Resource resource = new ClassPathResource("/static/" + String.format("%02d", id % 10) + ".pdf");
-		InputStream fileStream = resource.getInputStream();
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		org.apache.commons.io.IOUtils.copy(fileStream, buffer);
-		fileStream.close();
-		buffer.flush();
-		return buffer.toByteArray();
+		return StaticAssets.getContent(String.format("%02d", id % 10) + ".pdf");
 	}
 
 	public static Path getBatchDocPath(int id) throws IOException {
@@ -133,60 +202,33 @@ public class Util {
 	}
 
 	public static byte[] getPdfStampContent() throws IOException {
-		Resource resource = new ClassPathResource("/static/PdfStamp.png");
-		InputStream fileStream = resource.getInputStream();
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		IOUtils.copy(fileStream, buffer);
-		fileStream.close();
-		buffer.flush();
-		return buffer.toByteArray();
+		return StaticAssets.getContent("PdfStamp.png");
 	}
 
 	public static byte[] getIcpBrasilLogoContent() throws IOException {
-		Resource resource = new ClassPathResource("/static/icp-brasil.png");
-		InputStream fileStream = resource.getInputStream();
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		IOUtils.copy(fileStream, buffer);
-		fileStream.close();
-		buffer.flush();
-		return buffer.toByteArray();
+		return StaticAssets.getContent("icp-brasil.png");
 	}
 
-	public static Certificate getSampleCertificateFromPKCS12() throws IOException, GeneralSecurityException {
+	public static KeyStoreCache.KeyEntry getSampleKeyEntryFromPKCS12() throws IOException, GeneralSecurityException {
 		String alias = "{ecaf2712-4631-4f0e-94d1-fa6fcbff329f}";
 		String password = "1234";
 
-		Resource resource = new ClassPathResource("/static/Pierre de Fermat.pfx");
-		InputStream fileStream = resource.getInputStream();
-		KeyStore certStore = KeyStore.getInstance("pkcs12");
-		certStore.load(fileStream, password.toCharArray());
-		Certificate certificate = certStore.getCertificate(alias);
-		fileStream.close();
-		return certificate;
+		// The PKCS#12 file is opened and decrypted only once, subsequent calls are served from
+		// memory (see KeyStoreCache).
+		return KeyStoreCache.get("/static/Pierre de Fermat.pfx", alias, password);
 	}
 
-	public static Key getSampleKeyFromPKCS12() throws IOException, GeneralSecurityException {
-		String alias = "{ecaf2712-4631-4f0e-94d1-fa6fcbff329f}";
-		String password = "1234";
+	public static Certificate getSampleCertificateFromPKCS12() throws IOException, GeneralSecurityException {
+		return getSampleKeyEntryFromPKCS12().getCertificate();
+	}
 
-		Resource resource = new ClassPathResource("/static/Pierre de Fermat.pfx");
-		InputStream fileStream = resource.getInputStream();
-		KeyStore certStore = KeyStore.getInstance("pkcs12");
-		certStore.load(fileStream, password.toCharArray());
-		Key pkey = certStore.getKey(alias, password.toCharArray());
-		fileStream.close();
-		return pkey;
+	public static Key getSampleKeyFromPKCS12() throws IOException, GeneralSecurityException {
+		return getSampleKeyEntryFromPKCS12().getPrivateKey();
 	}
 
 	public static byte[] getValidationResultIcon(boolean isValid) throws IOException {
 		String filename = isValid ? "ok.png" : "not-ok.png";
-		Resource resource = new ClassPathResource("/static/" + filename);
-		InputStream fileStream = resource.getInputStream();
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		org.apache.commons.io.IOUtils.copy(fileStream, buffer);
-		fileStream.close();
-		buffer.flush();
-		return buffer.toByteArray();
+		return StaticAssets.getContent(filename);
 	}
 
 	public static Certificate getSampleCertificateFromMSCAPI() throws IOException, GeneralSecurityException {
@@ -229,6 +271,66 @@ public class Util {
 		return text.toString();
 	}
 
+	/**
+	 * Writes the given stream to a file without holding the whole content in memory, returning the
+	 * hex-encoded SHA-256 hash of the content, computed as the data is written.
+	 * <p>
+	 * The content is first written to a temporary file on the same folder, which is then moved to
+	 * the target path. This way, a partially written file is never visible under the target name.
+	 */
+	public static String writeToFile(InputStream stream, Path target) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		Path tempFile = Files.createTempFile(target.getParent(), "upload", ".tmp");
+		try {
+			FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				byte[] buffer = new byte[streamBufferSize];
+				int read;
+				while ((read = stream.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+					ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+					while (chunk.hasRemaining()) {
+						channel.write(chunk);
+					}
+				}
+			} finally {
+				channel.close();
+			}
+			Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+		return Hex.encodeHexString(digest.digest());
+	}
+
+	/**
+	 * Computes the hex-encoded SHA-256 hash of a file, reading it with a fixed-size buffer.
+	 */
+	public static String computeSha256(Path path) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		InputStream stream = Files.newInputStream(path);
+		try {
+			byte[] buffer = new byte[streamBufferSize];
+			int read;
+			while ((read = stream.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			stream.close();
+		}
+		return Hex.encodeHexString(digest.digest());
+	}
+
 	public static byte[] convertFromBase64String(String contentBase64) {
 		return Base64.decodeBase64(contentBase64);
 	}
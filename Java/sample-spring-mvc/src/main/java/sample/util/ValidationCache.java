@@ -0,0 +1,160 @@
+package sample.util;
+
+import com.lacunasoftware.restpki.*;
+import sample.Application;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the results of signature validations performed by REST PKI (see the "open signature"
+ * samples and CheckController).
+ * <p>
+ * A signed file never changes, so validating the same file with the same policy and security
+ * context yields the same result, as long as the status of the certificates involved doesn't
+ * change. The results are kept in memory, keyed by the content of the file, the signature policy
+ * and the security context. The content of a document on the DocumentStore is identified by its ID,
+ * since documents are never modified once stored (with ContentAddressedDocumentStore, the ID is the
+ * SHA-256 hash of the content), so a lookup doesn't read the file. Other files, such as the sample
+ * documents, are identified by their SHA-256 hash. Each result is kept until the earliest
+ * expiration among the certificates involved, and at most for the time set on the property
+ * validationCache.maxTtlMinutes, since a certificate might be revoked at any time.
+ */
+public class ValidationCache {
+
+	/**
+	 * Performs the validation when the result is not on the cache.
+	 */
+	public interface Validator<T> {
+		T validate() throws IOException, RestException;
+	}
+
+	private static final int maxEntries = 1000;
+	private static final long defaultMaxTtlMinutes = 10;
+
+	// Entries in least-recently-used order (the eldest entry is removed once the map is full).
+	private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	/**
+	 * Returns the PAdES signatures of the given file, validated with the given policy and security
+	 * context. The document ID is the ID of the file on the DocumentStore, or null if the file is
+	 * not stored there.
+	 */
+	public static PadesSignature getPadesSignature(String documentId, Path file, SignaturePolicy policy, SecurityContext securityContext, Validator<PadesSignature> validator) throws IOException, RestException {
+		String key = getKey("pades", documentId, file, policy, securityContext);
+		PadesSignature signature = (PadesSignature) lookup(key);
+		if (signature == null) {
+			signature = validator.validate();
+			Date expiration = null;
+			for (PadesSignerInfo signer : signature.getSigners()) {
+				expiration = earliest(expiration, signer.getCertificate());
+			}
+			store(key, signature, expiration);
+		}
+		return signature;
+	}
+
+	/**
+	 * Same as getPadesSignature(), for CAdES signatures.
+	 */
+	public static CadesSignature getCadesSignature(String documentId, Path file, SignaturePolicy policy, SecurityContext securityContext, Validator<CadesSignature> validator) throws IOException, RestException {
+		String key = getKey("cades", documentId, file, policy, securityContext);
+		CadesSignature signature = (CadesSignature) lookup(key);
+		if (signature == null) {
+			signature = validator.validate();
+			Date expiration = null;
+			for (CadesSignerInfo signer : signature.getSigners()) {
+				expiration = earliest(expiration, signer.getCertificate());
+			}
+			store(key, signature, expiration);
+		}
+		return signature;
+	}
+
+	/**
+	 * Same as getPadesSignature(), for XML signatures.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<XmlSignature> getXmlSignatures(String documentId, Path file, SignaturePolicy policy, SecurityContext securityContext, Validator<List<XmlSignature>> validator) throws IOException, RestException {
+		String key = getKey("xml", documentId, file, policy, securityContext);
+		List<XmlSignature> signatures = (List<XmlSignature>) lookup(key);
+		if (signatures == null) {
+			signatures = validator.validate();
+			Date expiration = null;
+			for (XmlSignature signature : signatures) {
+				expiration = earliest(expiration, signature.getCertificate());
+			}
+			store(key, signatures, expiration);
+		}
+		return signatures;
+	}
+
+	private static String getKey(String type, String documentId, Path file, SignaturePolicy policy, SecurityContext securityContext) throws IOException {
+		// The prefixes keep document IDs and hashes of other files apart.
+		String content = documentId != null ? "id:" + documentId : "sha256:" + Util.computeSha256(file);
+		return String.format("%s/%s/%s/%s", type, content, policy.getId(), securityContext.getId());
+	}
+
+	private static Object lookup(String key) {
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (entry.expiresAt <= System.currentTimeMillis()) {
+				entries.remove(key);
+				return null;
+			}
+			return entry.value;
+		}
+	}
+
+	private static void store(String key, Object value, Date certificatesExpiration) {
+		long expiresAt = System.currentTimeMillis() + getMaxTtlMillis();
+		if (certificatesExpiration != null) {
+			expiresAt = Math.min(expiresAt, certificatesExpiration.getTime());
+		}
+		synchronized (entries) {
+			entries.put(key, new Entry(value, expiresAt));
+		}
+	}
+
+	// Returns the earliest date between the given date and the expiration of the certificate and
+	// of its issuers.
+	private static Date earliest(Date date, PKCertificate certificate) {
+		while (certificate != null) {
+			Date validityEnd = certificate.getValidityEnd();
+			if (validityEnd != null && (date == null || validityEnd.before(date))) {
+				date = validityEnd;
+			}
+			certificate = certificate.getIssuer();
+		}
+		return date;
+	}
+
+	private static long getMaxTtlMillis() {
+		String value = Application.environment.getProperty("validationCache.maxTtlMinutes");
+		long minutes = (value != null && value.length() > 0) ? Long.parseLong(value) : defaultMaxTtlMinutes;
+		return minutes * 60 * 1000;
+	}
+
+	private static class Entry {
+
+		private final Object value;
+		private final long expiresAt;
+
+		Entry(Object value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package sample.util;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Storage of the verification codes associated with documents (see PrinterFriendlyVersionController
+ * and CheckController).
+ * <p>
+ * >>>>> NOTICE <<<<<
+ * In your application, this would typically be implemented on your "document table", with a
+ * verification code column which should be an indexed column. The samples use
+ * FileVerificationCodeStore, which keeps the codes on a local file (see Util.getVerificationCodeStore()).
+ */
+public interface VerificationCodeStore {
+
+	/**
+	 * Returns the verification code associated with the given document, or null if no verification
+	 * code has been associated with it.
+	 */
+	String getVerificationCode(String fileId);
+
+	/**
+	 * Registers the verification code for a given document.
+	 */
+	void setVerificationCode(String fileId, String code) throws IOException;
+
+	/**
+	 * Returns the verification code associated with the given document. If there is none, a code
+	 * is obtained from the given generator and registered for the document. This is done
+	 * atomically: concurrent calls for the same document all return the same code.
+	 */
+	String getOrCreateVerificationCode(String fileId, Supplier<String> generator) throws IOException;
+
+	/**
+	 * Removes the verification code of the given document (for instance, when the document is
+	 * deleted), so that the code no longer matches any document.
+	 */
+	void removeVerificationCode(String fileId) throws IOException;
+
+	/**
+	 * Returns the ID of the document associated with a given verification code, or null if no
+	 * document matches the given code.
+	 */
+	String lookupVerificationCode(String code);
+
+}
@@ -0,0 +1,54 @@
+package sample.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads (Java 21 or later) from code that still compiles and runs on Java 8.
+ * <p>
+ * Virtual threads cost almost nothing while blocked, so they suit the samples well: most of the
+ * time of a request is spent waiting for REST PKI to respond.
+ */
+public class VirtualThreads {
+
+	/**
+	 * Returns whether the JVM supports virtual threads.
+	 */
+	public static boolean isSupported() {
+		return newThreadFactory("probe-") != null;
+	}
+
+	/**
+	 * Returns the equivalent of Thread.ofVirtual().name(prefix, 1).factory(), or null if the JVM
+	 * does not support virtual threads. Reflection is used so that this code still compiles and
+	 * runs on Java 8.
+	 */
+	public static ThreadFactory newThreadFactory(String prefix) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns an executor that runs each task on a new virtual thread (virtual threads are cheap
+	 * to create and are not meant to be pooled), or null if the JVM does not support virtual
+	 * threads.
+	 */
+	public static Executor newThreadPerTaskExecutor(String prefix) {
+		final ThreadFactory threadFactory = newThreadFactory(prefix);
+		if (threadFactory == null) {
+			return null;
+		}
+		return new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				threadFactory.newThread(command).start();
+			}
+		};
+	}
+}
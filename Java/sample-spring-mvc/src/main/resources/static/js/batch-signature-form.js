@@ -57,7 +57,6 @@ var batchSignatureForm = (function () {
 	})();
 
 	// Auxiliary global variables.
-	var startQueue = null;
 	var performQueue = null;
 	var completeQueue = null;
 	var selectedCertThumbprint = null;
@@ -173,68 +172,62 @@ var batchSignatureForm = (function () {
 
 		// For each document, we must perform 3 actions in sequence:
 		//
-		//    1. Start the signature    : Call batch-signature-start to start the signature and get
-		//                                the signature process token.
+		//    1. Start the signature    : Call batch-signature-start-many to start the signatures of
+		//                                all documents at once and get the signature process
+		//                                tokens.
 		//    2. Perform the signature  : Call Web PKI's method signWithRestPki with the token.
-		//    3. Complete the signature : Call batch-signature-complete to notify that the
-		//                                signature is complete.
+		//    3. Complete the signature : Call batch-signature-complete-many to notify that the
+		//                                signatures are complete, once all of them have been
+		//                                performed.
 		//
-		// We'll use the Queue Javascript class defined above in order to perform these steps
-		// simultaneously.
+		// We'll use the Queue Javascript class defined above in order to perform the second step
+		// on several documents simultaneously.
 
 		// Create the queues.
-		startQueue = new Queue();
 		performQueue = new Queue();
 		completeQueue = new Queue();
 
-		// Add all documents to the first ("start") queue.
-		for (var i = 0; i < formElements.documentsIds.length; i++) {
-			startQueue.add({index: i, docId: formElements.documentsIds[i]});
-		}
-
-		// Process each queue placing the result on the next queue, forming a sort of "assembly line":
-		//
-		// startQueue                               performQueue                               completeQueue
-		// -------------                            -------------                              -------------
-		// XXXXXXX      ->  (startSignature)  ->              XX ->  (performSignature)  ->             XXX ->  (completeSignature)
-		// -------------       2 threads            -------------        2 threads             -------------         2 threads
-
-		startQueue.process(startSignature, {threads: 2, output: performQueue});
-		performQueue.process(performSignature, {threads: 2, output: completeQueue});
-		completeQueue.process(completeSignature, {threads: 2, completed: onBatchCompleted}); // onBatchCompleted is a callback for when the last queue is completely processed.
-
-		// Notice: the thread count on each call above is already optimized, increasing the number
-		// of threads will not enhance the performance significantly.
-	}
-
-	// --------------------------------------------------------------------------------------------
-	// Function that performs the first step described above for each document, which is the call
-	// batch-signature-start in order to start the signature and get the token associated with the
-	// signature process.
-	//
-	// This function is called by the Queue.process function, taking documents from the "start"
-	// queue. Once we're done, we'll call the "done" callback passing the document, and the
-	// Queue.process function will place the document on the "perform" queue to await processing.
-	// --------------------------------------------------------------------------------------------
-	function startSignature(step, done) {
-		// Call the server asynchronously to start the signature (the server will call REST PKI and
-		// will return the signature operation token).
+		// Call the server asynchronously to start all signatures with a single request (the server
+		// will call REST PKI concurrently and will return the signature operation tokens). If you
+		// prefer to start each signature on a separate request, the action batch-signature-start
+		// receives a single document ID and returns its token.
 		$.ajax({
-			url: '/batch-signature-start?id=' + step.docId,
+			url: '/batch-signature-start-many',
 			method: 'POST',
+			data: {ids: formElements.documentsIds.join(',')},
 			dataType: 'json',
-			success: function (token) {
-				// Add the token to the document information (we'll need it in the second step).
-				step.token = token;
-				// Call the "done" callback signalling we're done with the document.
-				done(step);
+			success: function (results) {
+
+				// Add each started document to the "perform" queue, along with its token (we'll
+				// need it in the second step).
+				for (var i = 0; i < results.length; i++) {
+					var step = {index: i, docId: results[i].id};
+					if (results[i].token) {
+						step.token = results[i].token;
+						performQueue.add(step);
+					} else {
+						renderFail(step, results[i].error);
+					}
+				}
+
+				// Process the "perform" queue placing each signed document on the "complete"
+				// queue. Once the whole queue is processed, the documents on the "complete" queue
+				// are completed with a single request:
+				//
+				// performQueue                               completeQueue
+				// -------------                              -------------
+				//           XX ->  (performSignature)  ->             XXX ->  (completeSignatures)
+				// -------------        2 threads             -------------
+
+				performQueue.process(performSignature, {threads: 2, output: completeQueue, completed: completeSignatures}); // completeSignatures is a callback for when the queue is completely processed.
+
+				// Notice: the thread count on the call above is already optimized, increasing the
+				// number of threads will not enhance the performance significantly.
 			},
 			error: function (jqXHR, textStatus, errorThrown) {
-				// Render error.
-				renderFail(step, errorThrown || textStatus);
-				// Call the "done" callback with no argument, signalling the document should not go
-				// to the next queue.
-				done();
+				// Render error and unblock the UI.
+				addAlert('danger', 'An error has occurred while starting the batch: ' + (errorThrown || textStatus));
+				$.unblockUI();
 			}
 		});
 	}
@@ -266,33 +259,53 @@ var batchSignatureForm = (function () {
 	}
 
 	// --------------------------------------------------------------------------------------------
-	// Function that performs the third step described above for each document, which is the call
-	// batch-signature-complete in order to complete the signature.
+	// Function that performs the third step described above for all documents, which is the call
+	// to batch-signature-complete-many in order to complete the signatures.
 	//
-	// This function is called by the Queue.process function, taking documents from the "complete"
-	// queue. Once we're done, we'll call the "done" callback passing the document. Once all
-	// documents are processed, the Queue.process will call the "onBatchCompleted" function.
+	// This function is called by the Queue.process function once the "perform" queue is
+	// completely processed. The server completes the signatures concurrently and returns one
+	// result per token, in the same order as the tokens. If you prefer to complete each signature
+	// on a separate request, the action batch-signature-complete receives a single token and
+	// returns the name of the signed file.
 	// --------------------------------------------------------------------------------------------
-	function completeSignature(step, done) {
+	function completeSignatures() {
+
+		var steps = completeQueue.items;
+		if (steps.length == 0) {
+			onBatchCompleted();
+			return;
+		}
+
+		var tokens = [];
+		for (var i = 0; i < steps.length; i++) {
+			tokens.push(steps[i].token); // The signature process tokens are guaranteed to be URL-safe.
+		}
 
-		// Call the server asynchronously to notify that the signature has been performed.
+		// Call the server asynchronously to notify that the signatures have been performed.
 		$.ajax({
-			url: '/batch-signature-complete?token=' + step.token, // The signature process token is guaranteed to be URL-safe.
+			url: '/batch-signature-complete-many',
 			method: 'POST',
+			data: {tokens: tokens.join(',')},
 			dataType: 'json',
-			success: function (filename) {
-				step.filename = filename;
-				// Render success.
-				renderSuccess(step);
-				// Call the "done" callback signalling we're done with the document.
-				done(step);
+			success: function (results) {
+				for (var i = 0; i < results.length; i++) {
+					if (results[i].filename) {
+						steps[i].filename = results[i].filename;
+						// Render success.
+						renderSuccess(steps[i]);
+					} else {
+						// Render error.
+						renderFail(steps[i], results[i].error);
+					}
+				}
+				onBatchCompleted();
 			},
 			error: function (jqXHR, textStatus, errorThrown) {
-				// Render error.
-				renderFail(step, errorThrown || textStatus);
-				// Call the "done" callback with no argument, signalling the document should not
-				// go to the next queue.
-				done();
+				// Render error on every document.
+				for (var i = 0; i < steps.length; i++) {
+					renderFail(steps[i], errorThrown || textStatus);
+				}
+				onBatchCompleted();
 			}
 		});
 	}